@@ -0,0 +1,85 @@
+package com.learnreactivespring.cache;
+
+import com.github.benmanes.caffeine.cache.AsyncCache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.learnreactivespring.document.Item;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Cache read-through dos itens, na frente do ItemReactiveRepository.findById.
+ * Usa o AsyncCache do Caffeine, que guarda um CompletableFuture por chave. Assim, várias requisições
+ * pelo mesmo id enquanto o item ainda está sendo buscado no banco aguardam o mesmo future.
+ * Os contadores de hit/miss/eviction são publicados no Micrometer com o nome "items".
+ */
+@Component
+public class ItemCache {
+
+    public static final String CACHE_NAME = "items";
+
+    @Value("${item.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${item.cache.maximum-size:10000}")
+    private long maximumSize;
+
+    @Value("${item.cache.ttl:5m}")
+    private Duration ttl;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private AsyncCache<String, Item> cache;
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttl.toNanos(), TimeUnit.NANOSECONDS)
+                /* Necessário para o Caffeine contar hits, misses e evictions. */
+                .recordStats()
+                .buildAsync();
+
+        new CaffeineCacheMetrics(cache.synchronous(), CACHE_NAME, Tags.empty()).bindTo(meterRegistry);
+    }
+
+    /**
+     * Retorna o item do cache ou, se não estiver lá, busca usando o loader e guarda o resultado.
+     * Se o loader não encontrar nada (Mono vazio), nada é guardado e o Mono retornado também é vazio.
+     *
+     * @param id
+     * @param loader
+     * @return
+     */
+    public Mono<Item> get(String id, Function<String, Mono<Item>> loader) {
+        if (!enabled) {
+            return loader.apply(id);
+        }
+        /* O defer garante que o cache só é consultado no momento do subscribe. */
+        return Mono.defer(() -> Mono.fromFuture(cache.get(id, (key, executor) -> loader.apply(key).toFuture())));
+    }
+
+    public void put(Item item) {
+        if (enabled && item.getId() != null) {
+            cache.put(item.getId(), CompletableFuture.completedFuture(item));
+        }
+    }
+
+    public void evict(String id) {
+        if (enabled) {
+            cache.synchronous().invalidate(id);
+        }
+    }
+
+}
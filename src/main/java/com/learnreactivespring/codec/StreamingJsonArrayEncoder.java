@@ -0,0 +1,97 @@
+package com.learnreactivespring.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.learnreactivespring.util.Batches;
+import org.reactivestreams.Publisher;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.lang.Nullable;
+import org.springframework.util.MimeType;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Encoder de json que escreve um Flux como array de forma incremental: primeiro o "[", depois os
+ * elementos, separados por vírgula, à medida em que chegam, e por último o "]".
+ * O Jackson2JsonEncoder padrão faz um collectList() antes de escrever um Flux como application/json,
+ * ou seja, mantém a lista inteira em memória. Aqui, os elementos são agrupados em blocos de até chunkSize
+ * itens, ou o que chegar dentro de chunkDelay, e cada bloco vira um único DataBuffer. Um cliente lento
+ * recebe os blocos conforme a demanda (Batches.bufferTimeout).
+ * Mono e os media types de stream (application/stream+json) continuam usando o comportamento padrão.
+ * Atenção: como o "[" é escrito logo no início, um erro no meio do Flux não consegue mais trocar o
+ * status da resposta para 500. O cliente recebe um json incompleto.
+ */
+public class StreamingJsonArrayEncoder extends Jackson2JsonEncoder {
+
+    private static final byte[] START_ARRAY = {'['};
+    private static final byte[] SEPARATOR = {','};
+    private static final byte[] END_ARRAY = {']'};
+
+    private final int chunkSize;
+
+    private final Duration chunkDelay;
+
+    public StreamingJsonArrayEncoder(ObjectMapper objectMapper, int chunkSize, Duration chunkDelay) {
+        super(objectMapper);
+        this.chunkSize = chunkSize;
+        this.chunkDelay = chunkDelay;
+    }
+
+    @Override
+    public Flux<DataBuffer> encode(Publisher<?> inputStream, DataBufferFactory bufferFactory,
+                                   ResolvableType elementType, @Nullable MimeType mimeType,
+                                   @Nullable Map<String, Object> hints) {
+
+        if (inputStream instanceof Mono || isStreamingMediaType(mimeType)) {
+            return super.encode(inputStream, bufferFactory, elementType, mimeType, hints);
+        }
+
+        /* O defer cria o estado (se já foi escrito algum elemento) para cada subscribe. */
+        return Flux.defer(() -> {
+            boolean[] first = {true};
+
+            /* O bloco que fecha por tempo espera o cliente pedir, em vez de encerrar a resposta com erro. */
+            Flux<DataBuffer> chunks = Batches.bufferTimeout(Flux.from(inputStream), chunkSize, chunkDelay)
+                    .map(chunk -> {
+                        List<DataBuffer> buffers = new ArrayList<>(chunk.size() * 2);
+                        for (Object value : chunk) {
+                            if (!first[0]) {
+                                buffers.add(bufferFactory.wrap(SEPARATOR));
+                            }
+                            first[0] = false;
+                            buffers.add(encodeValue(value, bufferFactory, elementType, mimeType, hints));
+                        }
+                        return bufferFactory.join(buffers);
+                    });
+
+            return Flux.concat(
+                    Mono.fromSupplier(() -> bufferFactory.wrap(START_ARRAY)),
+                    chunks,
+                    Mono.fromSupplier(() -> bufferFactory.wrap(END_ARRAY)));
+        })
+                /* Libera os buffers que ficaram pendentes se o cliente cancelar. */
+                .doOnDiscard(DataBuffer.class, DataBufferUtils::release);
+    }
+
+    private boolean isStreamingMediaType(@Nullable MimeType mimeType) {
+        if (mimeType == null) {
+            return false;
+        }
+        for (MediaType streamingMediaType : getStreamingMediaTypes()) {
+            if (streamingMediaType.isCompatibleWith(mimeType)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
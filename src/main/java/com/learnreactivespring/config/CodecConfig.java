@@ -0,0 +1,39 @@
+package com.learnreactivespring.config;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.learnreactivespring.codec.StreamingJsonArrayEncoder;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.web.codec.CodecCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+
+import java.time.Duration;
+
+@Configuration
+public class CodecConfig {
+
+    @Value("${item.codec.streaming-json-array.chunk-size:64}")
+    private int chunkSize;
+
+    @Value("${item.codec.streaming-json-array.chunk-delay:10ms}")
+    private Duration chunkDelay;
+
+    /**
+     * Troca o encoder de json padrão pelo StreamingJsonArrayEncoder. Tem a menor precedência para rodar
+     * depois do customizer do Spring Boot, que também registra um encoder de json.
+     *
+     * @param objectMapper
+     * @return
+     */
+    @Bean
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    @ConditionalOnProperty(name = "item.codec.streaming-json-array.enabled", havingValue = "true")
+    public CodecCustomizer streamingJsonArrayCodecCustomizer(ObjectMapper objectMapper) {
+        return configurer -> configurer.defaultCodecs()
+                .jackson2JsonEncoder(new StreamingJsonArrayEncoder(objectMapper, chunkSize, chunkDelay));
+    }
+
+}
@@ -0,0 +1,39 @@
+package com.learnreactivespring.config;
+
+import com.learnreactivespring.websocket.ItemStreamWebSocketHandler;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.reactive.HandlerMapping;
+import org.springframework.web.reactive.handler.SimpleUrlHandlerMapping;
+import org.springframework.web.reactive.socket.server.support.WebSocketHandlerAdapter;
+
+import java.util.Collections;
+
+import static com.learnreactivespring.constants.ItemConstants.ITEM_STREAM_WS_END_POINT_V1;
+
+@Configuration
+public class WebSocketConfig {
+
+    /**
+     * Mapeia as URLs dos WebSockets. Tem precedência sobre os controllers, que também mapeiam /v1/**.
+     *
+     * @param itemStreamWebSocketHandler
+     * @return
+     */
+    @Bean
+    public HandlerMapping webSocketHandlerMapping(ItemStreamWebSocketHandler itemStreamWebSocketHandler) {
+        SimpleUrlHandlerMapping handlerMapping = new SimpleUrlHandlerMapping();
+        handlerMapping.setUrlMap(Collections.singletonMap(ITEM_STREAM_WS_END_POINT_V1, itemStreamWebSocketHandler));
+        handlerMapping.setOrder(-1);
+        return handlerMapping;
+    }
+
+    /**
+     * Faz o DispatcherHandler saber executar um WebSocketHandler, fazendo o upgrade da conexão.
+     */
+    @Bean
+    public WebSocketHandlerAdapter webSocketHandlerAdapter() {
+        return new WebSocketHandlerAdapter();
+    }
+
+}
@@ -3,8 +3,30 @@ package com.learnreactivespring.constants;
 public class ItemConstants {
 
     public static final String ITEM_END_POINT_V1 = "/v1/items";
+    public static final String ITEM_EXPORT_END_POINT_V1 = "/v1/items/export";
+    public static final String ITEM_BULK_END_POINT_V1 = "/v1/items/bulk";
+    public static final String ITEM_LOOKUP_END_POINT_V1 = "/v1/items/lookup";
     public static final String ITEM_STREAM_END_POINT_V1 = "/v1/stream/items";
+    public static final String ITEM_SSE_END_POINT_V1 = "/v1/stream/items/sse";
+    public static final String ITEM_CHANGES_END_POINT_V1 = "/v1/stream/items/changes";
+    public static final String ITEM_SYNC_END_POINT_V1 = "/v1/stream/items/sync";
+    public static final String ITEM_STREAM_WS_END_POINT_V1 = "/v1/ws/stream/items";
     public static final String ITEM_FUNCTIONAL_END_POINT_V1 = "/v1/fun/items";
+    public static final String ITEM_EXPORT_FUNCTIONAL_END_POINT_V1 = "/v1/fun/items/export";
+    public static final String ITEM_BULK_FUNCTIONAL_END_POINT_V1 = "/v1/fun/items/bulk";
+    public static final String ITEM_LOOKUP_FUNCTIONAL_END_POINT_V1 = "/v1/fun/items/lookup";
     public static final String ITEM_STREAM_FUNCTIONAL_END_POINT_V1 = "/v1/fun/stream/items";
+    public static final String ITEM_SSE_FUNCTIONAL_END_POINT_V1 = "/v1/fun/stream/items/sse";
+    public static final String ITEM_CHANGES_FUNCTIONAL_END_POINT_V1 = "/v1/fun/stream/items/changes";
+    public static final String ITEM_SYNC_FUNCTIONAL_END_POINT_V1 = "/v1/fun/stream/items/sync";
+
+    /* Rotas do RSocket. */
+    public static final String ITEM_RSOCKET_FIND_ALL = "items.findAll";
+    public static final String ITEM_RSOCKET_FIND_BY_ID = "items.findById";
+    public static final String ITEM_RSOCKET_STREAM = "items.stream";
+    public static final String ITEM_RSOCKET_STREAM_CHANNEL = "items.stream.channel";
+
+    /* Header com o id do último evento recebido, enviado pelo cliente ao reconectar. */
+    public static final String LAST_EVENT_ID = "Last-Event-ID";
 
 }
@@ -1,16 +1,29 @@
 package com.learnreactivespring.controller.v1;
 
+import com.learnreactivespring.cache.ItemCache;
 import com.learnreactivespring.constants.ItemConstants;
 import com.learnreactivespring.document.Item;
+import com.learnreactivespring.dto.BulkItemResult;
+import com.learnreactivespring.dto.ItemLookupResult;
+import com.learnreactivespring.dto.ItemPage;
 import com.learnreactivespring.repository.ItemReactiveRepository;
+import com.learnreactivespring.service.ItemBulkWriter;
+import com.learnreactivespring.service.ItemChangePublisher;
+import com.learnreactivespring.service.ItemInsertCoalescer;
+import com.learnreactivespring.service.ItemLookup;
+import com.learnreactivespring.service.ItemReadCoalescer;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.List;
+
 @RestController
 @Slf4j
 public class ItemController {
@@ -24,9 +37,87 @@ public class ItemController {
     @Autowired
     private ItemReactiveRepository itemReactiveRepository;
 
+    @Autowired
+    private ItemCache itemCache;
+
+    @Autowired
+    private ItemBulkWriter itemBulkWriter;
+
+    @Autowired
+    private ItemInsertCoalescer itemInsertCoalescer;
+
+    @Autowired
+    private ItemReadCoalescer itemReadCoalescer;
+
+    @Autowired
+    private ItemLookup itemLookup;
+
+    @Autowired
+    private ItemChangePublisher itemChangePublisher;
+
+    @Value("${item.page.max-limit:1000}")
+    private int maxPageLimit;
+
+    @Value("${item.export.batch-size:100}")
+    private int exportBatchSize;
+
     @GetMapping(ItemConstants.ITEM_END_POINT_V1)
     public Flux<Item> getAllItems() {
-        return itemReactiveRepository.findAll();
+        /* Requisições simultâneas compartilham o mesmo findAll. */
+        return itemReadCoalescer.findAll().flatMapIterable(items -> items);
+    }
+
+    /**
+     * Listagem paginada por keyset. Só é usada quando o parâmetro limit é informado, senão cai no
+     * getAllItems. O campo next da resposta deve ser passado no after para buscar a próxima página.
+     *
+     * @param after
+     * @param limit
+     * @return
+     */
+    @GetMapping(value = ItemConstants.ITEM_END_POINT_V1, params = "limit")
+    public Mono<ItemPage> getItemsPage(@RequestParam(required = false) String after, @RequestParam int limit) {
+        int pageSize = Math.max(1, Math.min(limit, maxPageLimit));
+        /* Busca um item a mais para saber se existe próxima página. */
+        return itemReactiveRepository.findPage(after, pageSize + 1)
+                .collectList()
+                .map(items -> ItemPage.of(items, pageSize));
+    }
+
+    /**
+     * Busca vários itens de uma vez, ex: /v1/items?ids=a,b,c. Os ids não encontrados vêm no final,
+     * com found = false.
+     *
+     * @param ids
+     * @return
+     */
+    @GetMapping(value = ItemConstants.ITEM_END_POINT_V1, params = "ids")
+    public Flux<ItemLookupResult> getItemsByIds(@RequestParam List<String> ids) {
+        return itemLookup.lookup(ids);
+    }
+
+    /**
+     * Mesmo que o getItemsByIds, mas recebe os ids como um array json no corpo, para listas que não cabem
+     * na URL.
+     *
+     * @param ids
+     * @return
+     */
+    @PostMapping(ItemConstants.ITEM_LOOKUP_END_POINT_V1)
+    public Flux<ItemLookupResult> lookupItems(@RequestBody List<String> ids) {
+        return itemLookup.lookup(ids);
+    }
+
+    /**
+     * Envia todos os itens como NDJSON (um json por linha), à medida em que são lidos do cursor, sem
+     * montar a lista inteira em memória.
+     *
+     * @param after
+     * @return
+     */
+    @GetMapping(value = ItemConstants.ITEM_EXPORT_END_POINT_V1, produces = MediaType.APPLICATION_STREAM_JSON_VALUE)
+    public Flux<Item> exportItems(@RequestParam(required = false) String after) {
+        return itemReactiveRepository.streamAll(after, exportBatchSize);
     }
 
     /**
@@ -38,7 +129,9 @@ public class ItemController {
      */
     @GetMapping(ItemConstants.ITEM_END_POINT_V1 + "/{id}")
     public Mono<ResponseEntity<Item>> getOneItem(@PathVariable String id) {
-        return itemReactiveRepository.findById(id)
+        /* Busca primeiro no cache, e só vai no banco se o item não estiver lá. Buscas simultâneas pelo
+         * mesmo id compartilham a mesma ida ao banco. */
+        return itemCache.get(id, itemReadCoalescer::findById)
                 /* Mapeia o Mono para um Item, para criar o ResponseEntity. */
                 .map(item -> new ResponseEntity<>(item, HttpStatus.OK))
                 /* Se não achou nada, retorna 404. */
@@ -48,22 +141,43 @@ public class ItemController {
     @PostMapping(ItemConstants.ITEM_END_POINT_V1)
     @ResponseStatus(HttpStatus.CREATED)
     public Mono<Item> createItem(@RequestBody Item item) {
-        return itemReactiveRepository.save(item);
+        /* Se o item.insert-coalescing estiver ligado, o item é gravado junto com os outros que chegarem
+         * ao mesmo tempo. */
+        return itemInsertCoalescer.create(item)
+                .doOnNext(itemCache::put);
+    }
+
+    /**
+     * Cria vários itens de uma vez. O corpo pode ser um array json ou um json por linha
+     * (application/stream+json), e é lido aos poucos, conforme os lotes são gravados.
+     * Retorna um resultado por item, também um json por linha.
+     *
+     * @param items
+     * @param batchSize
+     * @return
+     */
+    @PostMapping(value = ItemConstants.ITEM_BULK_END_POINT_V1,
+            consumes = {MediaType.APPLICATION_JSON_VALUE, MediaType.APPLICATION_STREAM_JSON_VALUE},
+            produces = MediaType.APPLICATION_STREAM_JSON_VALUE)
+    public Flux<BulkItemResult> createItems(@RequestBody Flux<Item> items,
+                                            @RequestParam(required = false) Integer batchSize) {
+        return itemBulkWriter.insert(items, batchSize);
     }
 
     @DeleteMapping(ItemConstants.ITEM_END_POINT_V1 + "/{id}")
     public Mono<Void> deleteItem(@PathVariable String id) {
-        return itemReactiveRepository.deleteById(id);
+        return itemReactiveRepository.deleteById(id)
+                /* Remove do cache mesmo se o delete falhar, para forçar a próxima leitura no banco. */
+                .doFinally(signalType -> itemCache.evict(id))
+                .then(itemChangePublisher.deleted(id));
     }
 
     @PutMapping(ItemConstants.ITEM_END_POINT_V1 + "/{id}")
     public Mono<ResponseEntity<Item>> updateItem(@PathVariable String id, @RequestBody Item item) {
-        return itemReactiveRepository.findById(id)
-                .flatMap(currentItem -> {
-                    currentItem.setPrice(item.getPrice());
-                    currentItem.setDescription(item.getDescription());
-                    return itemReactiveRepository.save(currentItem);
-                })
+        /* Busca e altera o item em uma única operação no banco. Se o id não existir, o Mono vem vazio. */
+        return itemReactiveRepository.updateItem(id, item)
+                .flatMap(itemChangePublisher::updated)
+                .doOnNext(itemCache::put)
                 .map(updatedItem -> new ResponseEntity<>(updatedItem, HttpStatus.OK))
                 .defaultIfEmpty(new ResponseEntity<>(HttpStatus.NOT_FOUND));
     }
@@ -0,0 +1,86 @@
+package com.learnreactivespring.controller.v1;
+
+import com.learnreactivespring.cache.ItemCache;
+import com.learnreactivespring.document.Item;
+import com.learnreactivespring.document.ItemCapped;
+import com.learnreactivespring.repository.ItemReactiveRepository;
+import com.learnreactivespring.service.ItemReadCoalescer;
+import com.learnreactivespring.stream.ItemCappedStream;
+import com.learnreactivespring.stream.ItemStreamFilter;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.handler.annotation.Payload;
+import org.springframework.stereotype.Controller;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static com.learnreactivespring.constants.ItemConstants.ITEM_RSOCKET_FIND_ALL;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_RSOCKET_FIND_BY_ID;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_RSOCKET_STREAM;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_RSOCKET_STREAM_CHANNEL;
+
+/**
+ * Os itens por RSocket, na porta spring.rsocket.server.port.
+ * Diferente do HTTP, o RSocket repassa a demanda do cliente (request(n)) para o servidor. Ela chega
+ * até o cursor do Mongo, que só busca o próximo lote quando o cliente pede mais itens. Vários streams
+ * podem usar a mesma conexão.
+ */
+@Controller
+public class ItemRSocketController {
+
+    @Autowired
+    private ItemReactiveRepository itemReactiveRepository;
+
+    @Autowired
+    private ItemCache itemCache;
+
+    @Autowired
+    private ItemReadCoalescer itemReadCoalescer;
+
+    @Autowired
+    private ItemCappedStream itemCappedStream;
+
+    @Value("${item.rsocket.batch-size:100}")
+    private int batchSize;
+
+    /**
+     * Request-stream com todos os itens, ordenados pelo id. O cursor busca no máximo batchSize documentos
+     * por vez, e só quando o cliente tem demanda.
+     *
+     * @param after id do último item recebido, para continuar de onde parou. Opcional.
+     */
+    @MessageMapping(ITEM_RSOCKET_FIND_ALL)
+    public Flux<Item> findAll(@Payload(required = false) String after) {
+        return itemReactiveRepository.streamAll(after, batchSize);
+    }
+
+    /**
+     * Request-response, usando o mesmo cache do GET /v1/items/{id}.
+     */
+    @MessageMapping(ITEM_RSOCKET_FIND_BY_ID)
+    public Mono<Item> findById(String id) {
+        return itemCache.get(id, itemReadCoalescer::findById);
+    }
+
+    /**
+     * Request-stream do cursor tailable. Usa um cursor por stream (nunca o compartilhado), para que a
+     * demanda do cliente controle o cursor.
+     *
+     * @param filter filtros do stream. Opcional.
+     */
+    @MessageMapping(ITEM_RSOCKET_STREAM)
+    public Flux<ItemCapped> stream(@Payload(required = false) ItemStreamFilter filter) {
+        return itemCappedStream.stream(false, filter != null ? filter : new ItemStreamFilter(), null);
+    }
+
+    /**
+     * Request-channel do cursor tailable: o cliente envia os filtros, e pode trocar de filtro sem abrir
+     * outro stream.
+     */
+    @MessageMapping(ITEM_RSOCKET_STREAM_CHANNEL)
+    public Flux<ItemCapped> streamChannel(Flux<ItemStreamFilter> filters) {
+        return itemCappedStream.stream(false, filters, null);
+    }
+
+}
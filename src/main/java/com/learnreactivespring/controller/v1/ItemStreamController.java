@@ -1,28 +1,121 @@
 package com.learnreactivespring.controller.v1;
 
 import com.learnreactivespring.document.ItemCapped;
-import com.learnreactivespring.repository.ItemReactiveCappedRepository;
+import com.learnreactivespring.document.ItemChange;
+import com.learnreactivespring.dto.ItemSyncEvent;
+import com.learnreactivespring.stream.ItemCappedStream;
+import com.learnreactivespring.stream.ItemChangeStream;
+import com.learnreactivespring.stream.ItemStreamBatchWriter;
+import com.learnreactivespring.stream.ItemStreamFilter;
+import com.learnreactivespring.stream.ItemSyncStream;
+import com.learnreactivespring.stream.OverflowPolicy;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.http.server.reactive.ServerHttpResponse;
+import org.springframework.util.MultiValueMap;
 import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
+import static com.learnreactivespring.constants.ItemConstants.ITEM_CHANGES_END_POINT_V1;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_SSE_END_POINT_V1;
 import static com.learnreactivespring.constants.ItemConstants.ITEM_STREAM_END_POINT_V1;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_SYNC_END_POINT_V1;
+import static com.learnreactivespring.constants.ItemConstants.LAST_EVENT_ID;
 
 @RestController
 public class ItemStreamController {
 
     @Autowired
-    private ItemReactiveCappedRepository itemReactiveCappedRepository;
+    private ItemCappedStream itemCappedStream;
 
+    @Autowired
+    private ItemStreamBatchWriter itemStreamBatchWriter;
+
+    @Autowired
+    private ItemChangeStream itemChangeStream;
+
+    @Autowired
+    private ItemSyncStream itemSyncStream;
+
+    /**
+     * @param shared      se true, usa o cursor tailable compartilhado por todos os clientes do nó.
+     * @param queryParams filtros do stream (lastId, minPrice, maxPrice, descriptionPrefix).
+     * @param overflow    o que fazer se o cliente for lento (buffer, drop-oldest, latest ou disconnect).
+     * @param lastEventId id do último item recebido, no header padrão usado pelos clientes de SSE.
+     * @return
+     */
     @GetMapping(value = ITEM_STREAM_END_POINT_V1, produces = MediaType.APPLICATION_STREAM_JSON_VALUE)
-    public Flux<ItemCapped> getItemsStream() {
+    public Flux<ItemCapped> getItemsStream(@RequestParam(defaultValue = "false") boolean shared,
+                                           @RequestParam(required = false) String overflow,
+                                           @RequestParam MultiValueMap<String, String> queryParams,
+                                           @RequestHeader(value = LAST_EVENT_ID, required = false) String lastEventId) {
         /* Como o método findItemsBy() usa um Tailable Cursor, quando a requisição chegar nesse
          * controller, ela será mantida aberta e sempre que um novo item for inserido no banco,
          * ele será enviado para o cliente. */
-        return itemReactiveCappedRepository.findItemsBy();
+        return itemCappedStream.stream(shared, ItemStreamFilter.of(queryParams, lastEventId),
+                OverflowPolicy.from(overflow));
+
+    }
+
+    /**
+     * O mesmo stream, mas com os itens enviados em lotes, ex: ?batchSize=64&maxDelay=5. Cada lote é
+     * escrito com um único flush, o que reduz o número de escritas no socket quando chegam muitos itens.
+     *
+     * @param batchSize número máximo de itens por lote.
+     * @param maxDelay  tempo máximo, em ms, que um item espera o lote fechar.
+     */
+    @GetMapping(value = ITEM_STREAM_END_POINT_V1, params = "batchSize", produces = MediaType.APPLICATION_STREAM_JSON_VALUE)
+    public Mono<Void> getItemsStreamBatched(ServerHttpResponse response,
+                                            @RequestParam int batchSize,
+                                            @RequestParam(required = false) Long maxDelay,
+                                            @RequestParam(defaultValue = "false") boolean shared,
+                                            @RequestParam(required = false) String overflow,
+                                            @RequestParam MultiValueMap<String, String> queryParams,
+                                            @RequestHeader(value = LAST_EVENT_ID, required = false) String lastEventId) {
+        Flux<ItemCapped> items = itemCappedStream.stream(shared, ItemStreamFilter.of(queryParams, lastEventId),
+                OverflowPolicy.from(overflow));
+        return itemStreamBatchWriter.write(response, items, batchSize, maxDelay);
+    }
+
+    /**
+     * O mesmo stream, como Server-Sent Events. Os parâmetros são os mesmos do getItemsStream. Ao
+     * reconectar, o navegador envia o id do último evento no header Last-Event-ID, e o stream
+     * continua a partir dele.
+     */
+    @GetMapping(value = ITEM_SSE_END_POINT_V1, produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<ItemCapped>> getItemsSse(@RequestParam(defaultValue = "false") boolean shared,
+                                                         @RequestParam(required = false) String overflow,
+                                                         @RequestParam MultiValueMap<String, String> queryParams,
+                                                         @RequestHeader(value = LAST_EVENT_ID, required = false) String lastEventId) {
+        return itemCappedStream.sse(shared, ItemStreamFilter.of(queryParams, lastEventId),
+                OverflowPolicy.from(overflow));
+    }
+
+    /**
+     * Alterações dos itens (CREATE, UPDATE e DELETE), para os consumidores invalidarem os seus caches
+     * sem consultar o GET /v1/items periodicamente.
+     *
+     * @param lastId      id da última alteração recebida, para continuar depois dela.
+     * @param lastEventId o mesmo, no header Last-Event-ID.
+     */
+    @GetMapping(value = ITEM_CHANGES_END_POINT_V1, produces = MediaType.APPLICATION_STREAM_JSON_VALUE)
+    public Flux<ItemChange> getItemChanges(@RequestParam(required = false) String lastId,
+                                           @RequestHeader(value = LAST_EVENT_ID, required = false) String lastEventId) {
+        return itemChangeStream.changes(lastId != null ? lastId : lastEventId);
+    }
 
+    /**
+     * Todos os itens atuais, um MARKER, e depois as alterações feitas a partir do início do snapshot. Um
+     * consumidor que está começando carrega os itens e passa a receber as alterações na mesma conexão.
+     */
+    @GetMapping(value = ITEM_SYNC_END_POINT_V1, produces = MediaType.APPLICATION_STREAM_JSON_VALUE)
+    public Flux<ItemSyncEvent> syncItems() {
+        return itemSyncStream.sync();
     }
 
 }
@@ -4,6 +4,7 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 @Document // Equivalente a @Entity
@@ -15,8 +16,11 @@ public class Item {
     @Id
     private String id;
 
+    /* Os índices são criados no startup pelo ItemIndexInitializer. */
+    @Indexed
     private String description;
 
+    @Indexed
     private Double price;
 
 }
@@ -4,6 +4,7 @@ import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 @Document // Equivalente a @Entity
@@ -15,8 +16,19 @@ public class ItemCapped {
     @Id
     private String id;
 
+    /* Os índices são criados no startup pelo ItemIndexInitializer. */
+    @Indexed
     private String description;
 
+    @Indexed
     private Double price;
 
+    /* Item a que o evento se refere. O id é de cada evento, e vários eventos podem ter o mesmo itemId.
+     * Os eventos gravados sem itemId são tratados como itens distintos. */
+    private String itemId;
+
+    public ItemCapped(String id, String description, Double price) {
+        this(id, description, price, null);
+    }
+
 }
@@ -0,0 +1,34 @@
+package com.learnreactivespring.document;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Vários eventos de ItemCapped em um único documento: um bucket por intervalo de tempo, com no máximo
+ * item.stream.bucket.max-events eventos. Usado quando item.stream.store = bucketed.
+ * O índice do start, com TTL, é criado pelo BucketedItemEventStore.
+ */
+@Document
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ItemCappedBucket {
+
+    @Id
+    private String id;
+
+    /* Início do intervalo do bucket. */
+    private Date start;
+
+    /* Quantos eventos já foram gravados, sempre igual ao tamanho do events. */
+    private int count;
+
+    private List<ItemCapped> events;
+
+}
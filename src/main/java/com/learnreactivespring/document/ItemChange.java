@@ -0,0 +1,39 @@
+package com.learnreactivespring.document;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Map;
+
+/**
+ * Uma alteração em um Item, gravada na capped collection itemChange (o outbox) por todos os caminhos que
+ * criam, alteram ou removem itens. Os consumidores leem as alterações pelo /v1/stream/items/changes, em
+ * vez de consultar o GET /v1/items periodicamente.
+ */
+@Document
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ItemChange {
+
+    /* ObjectId gerado no insert, que cresce na ordem das alterações e é usado para retomar o stream. */
+    @Id
+    private String id;
+
+    private Op op;
+
+    private String itemId;
+
+    /* Os campos gravados pela alteração. Vazio no DELETE. */
+    private Map<String, Object> fields;
+
+    public enum Op {
+        CREATE,
+        UPDATE,
+        DELETE
+    }
+
+}
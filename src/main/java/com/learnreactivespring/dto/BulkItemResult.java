@@ -0,0 +1,31 @@
+package com.learnreactivespring.dto;
+
+import com.learnreactivespring.document.Item;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Resultado da inserção de um item no POST /v1/items/bulk. Cada item enviado gera um resultado, na mesma
+ * ordem do corpo da requisição.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class BulkItemResult {
+
+    private Item item;
+
+    private boolean created;
+
+    private String error;
+
+    public static BulkItemResult created(Item item) {
+        return new BulkItemResult(item, true, null);
+    }
+
+    public static BulkItemResult failed(Item item, String error) {
+        return new BulkItemResult(item, false, error);
+    }
+
+}
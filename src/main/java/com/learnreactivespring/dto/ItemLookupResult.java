@@ -0,0 +1,31 @@
+package com.learnreactivespring.dto;
+
+import com.learnreactivespring.document.Item;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Resultado de um id pedido no GET /v1/items?ids=... ou no POST /v1/items/lookup. Os ids que não existem
+ * vêm com found = false e item null.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ItemLookupResult {
+
+    private String id;
+
+    private boolean found;
+
+    private Item item;
+
+    public static ItemLookupResult found(Item item) {
+        return new ItemLookupResult(item.getId(), true, item);
+    }
+
+    public static ItemLookupResult missing(String id) {
+        return new ItemLookupResult(id, false, null);
+    }
+
+}
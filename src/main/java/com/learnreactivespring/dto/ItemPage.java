@@ -0,0 +1,39 @@
+package com.learnreactivespring.dto;
+
+import com.learnreactivespring.document.Item;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Uma página da listagem de itens. O next é o id que deve ser passado no parâmetro after para buscar a
+ * próxima página, e vem null quando não há mais itens.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ItemPage {
+
+    private List<Item> items;
+
+    private String next;
+
+    /**
+     * Monta a página a partir de uma busca feita com limit + 1. Se veio o item extra, existe uma próxima
+     * página, e ela começa depois do último item desta.
+     *
+     * @param fetched
+     * @param limit
+     * @return
+     */
+    public static ItemPage of(List<Item> fetched, int limit) {
+        if (fetched.size() <= limit) {
+            return new ItemPage(fetched, null);
+        }
+        List<Item> items = fetched.subList(0, limit);
+        return new ItemPage(items, items.get(limit - 1).getId());
+    }
+
+}
@@ -0,0 +1,45 @@
+package com.learnreactivespring.dto;
+
+import com.learnreactivespring.document.Item;
+import com.learnreactivespring.document.ItemChange;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Evento do GET /v1/stream/items/sync. Primeiro vêm os itens atuais (SNAPSHOT), depois um único MARKER, e
+ * depois as alterações (CHANGE) feitas a partir do início do snapshot.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ItemSyncEvent {
+
+    private Type type;
+
+    private Item item;
+
+    private ItemChange change;
+
+    /* No MARKER, o id da última alteração que já estava refletida no snapshot. Pode ser null. */
+    private String watermark;
+
+    public static ItemSyncEvent snapshot(Item item) {
+        return new ItemSyncEvent(Type.SNAPSHOT, item, null, null);
+    }
+
+    public static ItemSyncEvent marker(String watermark) {
+        return new ItemSyncEvent(Type.MARKER, null, null, watermark);
+    }
+
+    public static ItemSyncEvent change(ItemChange change) {
+        return new ItemSyncEvent(Type.CHANGE, null, change, null);
+    }
+
+    public enum Type {
+        SNAPSHOT,
+        MARKER,
+        CHANGE
+    }
+
+}
@@ -5,11 +5,21 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.ControllerAdvice;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.server.ResponseStatusException;
 
 @ControllerAdvice
 @Slf4j
 public class ControllerExceptionHandler {
 
+    /**
+     * Erros com o status definido, como o ServerWebInputException (400) de um parâmetro inválido.
+     */
+    @ExceptionHandler(ResponseStatusException.class)
+    public ResponseEntity<String> handleResponseStatusException(ResponseStatusException ex) {
+        log.warn("Exception caught in handleResponseStatusException : {} ", ex.toString());
+        return ResponseEntity.status(ex.getStatus()).body(ex.getReason());
+    }
+
     @ExceptionHandler(RuntimeException.class)
     public ResponseEntity<String> handleRuntimeException(RuntimeException ex) {
         log.error("Exception caught in handleRuntimeException : {} ", ex.toString());
@@ -1,17 +1,45 @@
 package com.learnreactivespring.handler;
 
+import com.learnreactivespring.cache.ItemCache;
 import com.learnreactivespring.document.Item;
 import com.learnreactivespring.document.ItemCapped;
-import com.learnreactivespring.repository.ItemReactiveCappedRepository;
+import com.learnreactivespring.document.ItemChange;
+import com.learnreactivespring.dto.BulkItemResult;
+import com.learnreactivespring.dto.ItemLookupResult;
+import com.learnreactivespring.dto.ItemPage;
+import com.learnreactivespring.dto.ItemSyncEvent;
 import com.learnreactivespring.repository.ItemReactiveRepository;
+import com.learnreactivespring.service.ItemBulkWriter;
+import com.learnreactivespring.service.ItemChangePublisher;
+import com.learnreactivespring.service.ItemInsertCoalescer;
+import com.learnreactivespring.service.ItemLookup;
+import com.learnreactivespring.service.ItemReadCoalescer;
+import com.learnreactivespring.stream.ItemCappedStream;
+import com.learnreactivespring.stream.ItemChangeStream;
+import com.learnreactivespring.stream.ItemStreamBatchWriter;
+import com.learnreactivespring.stream.ItemStreamFilter;
+import com.learnreactivespring.stream.ItemSyncStream;
+import com.learnreactivespring.stream.OverflowPolicy;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Component;
+import org.springframework.web.reactive.function.BodyInserter;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
+import org.springframework.web.server.ServerWebInputException;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static com.learnreactivespring.constants.ItemConstants.LAST_EVENT_ID;
 import static org.springframework.web.reactive.function.BodyInserters.fromValue;
 
 @Component
@@ -21,22 +49,107 @@ public class ItemsHandler {
     ItemReactiveRepository itemReactiveRepository;
 
     @Autowired
-    ItemReactiveCappedRepository itemReactiveCappedRepository;
+    ItemCache itemCache;
+
+    @Autowired
+    ItemCappedStream itemCappedStream;
+
+    @Autowired
+    ItemBulkWriter itemBulkWriter;
+
+    @Autowired
+    ItemInsertCoalescer itemInsertCoalescer;
+
+    @Autowired
+    ItemReadCoalescer itemReadCoalescer;
+
+    @Autowired
+    ItemLookup itemLookup;
+
+    @Autowired
+    ItemChangePublisher itemChangePublisher;
+
+    @Autowired
+    ItemChangeStream itemChangeStream;
+
+    @Autowired
+    ItemSyncStream itemSyncStream;
+
+    @Autowired
+    ItemStreamBatchWriter itemStreamBatchWriter;
+
+    @Value("${item.page.max-limit:1000}")
+    int maxPageLimit;
+
+    @Value("${item.export.batch-size:100}")
+    int exportBatchSize;
 
     static Mono<ServerResponse> notFound = ServerResponse.notFound().build();
 
     public Mono<ServerResponse> getAllItems(ServerRequest serverRequest) {
         return ServerResponse.ok()
                 .contentType(MediaType.APPLICATION_JSON)
-                .body(itemReactiveRepository.findAll(), Item.class);
+                /* Requisições simultâneas compartilham o mesmo findAll. */
+                .body(itemReadCoalescer.findAll().flatMapIterable(items -> items), Item.class);
+
+    }
+
+    public Mono<ServerResponse> getItemsPage(ServerRequest serverRequest) {
+        String after = serverRequest.queryParam("after").orElse(null);
+        int limit;
+        try {
+            limit = Integer.parseInt(serverRequest.queryParam("limit").orElse(""));
+        } catch (NumberFormatException e) {
+            return ServerResponse.badRequest().build();
+        }
+        int pageSize = Math.max(1, Math.min(limit, maxPageLimit));
+
+        /* Busca um item a mais para saber se existe próxima página. */
+        Mono<ItemPage> page = itemReactiveRepository.findPage(after, pageSize + 1)
+                .collectList()
+                .map(items -> ItemPage.of(items, pageSize));
+
+        return ServerResponse.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(page, ItemPage.class);
+    }
 
+    public Mono<ServerResponse> getItemsByIds(ServerRequest serverRequest) {
+        /* ?ids=a,b,c. Sem nenhum id (?ids= ou ?ids=,) é 400, em vez de buscar o id "". */
+        List<String> ids = Arrays.stream(serverRequest.queryParam("ids").orElse("").split(","))
+                .filter(id -> !id.isEmpty())
+                .collect(Collectors.toList());
+        if (ids.isEmpty()) {
+            return ServerResponse.badRequest().build();
+        }
+        return ServerResponse.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(itemLookup.lookup(ids), ItemLookupResult.class);
+    }
+
+    public Mono<ServerResponse> lookupItems(ServerRequest serverRequest) {
+        /* O corpo é um array json com os ids. */
+        Flux<ItemLookupResult> results = serverRequest.bodyToMono(new ParameterizedTypeReference<List<String>>() {
+        })
+                .flatMapMany(itemLookup::lookup);
+        return ServerResponse.ok()
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(results, ItemLookupResult.class);
+    }
+
+    public Mono<ServerResponse> exportItems(ServerRequest serverRequest) {
+        String after = serverRequest.queryParam("after").orElse(null);
+        return ServerResponse.ok()
+                .contentType(MediaType.APPLICATION_STREAM_JSON)
+                /* Um json por linha, enviado à medida em que o cursor lê os documentos. */
+                .body(itemReactiveRepository.streamAll(after, exportBatchSize), Item.class);
     }
 
     public Mono<ServerResponse> getOneItem(ServerRequest serverRequest) {
         /* Pegamos o PathVariable */
         String id = serverRequest.pathVariable("id");
-        /* Buscamos o objeto do banco. */
-        Mono<Item> itemMono = itemReactiveRepository.findById(id);
+        /* Buscamos o objeto no cache, e se não estiver lá, no banco. */
+        Mono<Item> itemMono = itemCache.get(id, itemReadCoalescer::findById);
 
         return itemMono.flatMap(item -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON)
                 /* Passamos o corpo do retorno usando a função auxiliar. */
@@ -51,14 +164,31 @@ public class ItemsHandler {
                 ServerResponse.status(HttpStatus.CREATED)
                         .contentType(MediaType.APPLICATION_JSON)
                         /* Envia a resposta para o cliente, com o item no corpo da requisição. */
-                        .body(itemReactiveRepository.save(item), Item.class)
+                        .body(itemInsertCoalescer.create(item).doOnNext(itemCache::put), Item.class)
         );
 
     }
 
+    public Mono<ServerResponse> createItems(ServerRequest serverRequest) {
+        Integer batchSize;
+        try {
+            batchSize = serverRequest.queryParam("batchSize").map(Integer::valueOf).orElse(null);
+        } catch (NumberFormatException e) {
+            return ServerResponse.badRequest().build();
+        }
+        /* O bodyToFlux lê o array json (ou um json por linha) item a item, sem carregar tudo antes. */
+        Flux<BulkItemResult> results = itemBulkWriter.insert(serverRequest.bodyToFlux(Item.class), batchSize);
+
+        return ServerResponse.ok()
+                .contentType(MediaType.APPLICATION_STREAM_JSON)
+                .body(results, BulkItemResult.class);
+    }
+
     public Mono<ServerResponse> deleteItem(ServerRequest serverRequest) {
         String id = serverRequest.pathVariable("id");
-        Mono<Void> deletedItem = itemReactiveRepository.deleteById(id);
+        Mono<Void> deletedItem = itemReactiveRepository.deleteById(id)
+                .doFinally(signalType -> itemCache.evict(id))
+                .then(itemChangePublisher.deleted(id));
         return ServerResponse.ok()
                 .contentType(MediaType.APPLICATION_JSON)
                 .body(deletedItem, Void.class);
@@ -67,15 +197,10 @@ public class ItemsHandler {
     public Mono<ServerResponse> updateItem(ServerRequest serverRequest) {
         String id = serverRequest.pathVariable("id");
         Mono<Item> updatedItem = serverRequest.bodyToMono(Item.class)
-                .flatMap(item -> {
-                    Mono<Item> itemMono = itemReactiveRepository.findById(id)
-                            .flatMap(currentItem -> {
-                                currentItem.setDescription(item.getDescription());
-                                currentItem.setPrice(item.getPrice());
-                                return itemReactiveRepository.save(currentItem);
-                            });
-                    return itemMono;
-                });
+                /* Busca e altera o item em uma única operação no banco. Se o id não existir, o Mono vem vazio. */
+                .flatMap(item -> itemReactiveRepository.updateItem(id, item))
+                .flatMap(itemChangePublisher::updated)
+                .doOnNext(itemCache::put);
         return updatedItem.flatMap(item ->
                 ServerResponse.ok()
                         .contentType(MediaType.APPLICATION_JSON)
@@ -88,12 +213,94 @@ public class ItemsHandler {
     }
 
     public Mono<ServerResponse> itemsStream(ServerRequest serverRequest) {
+        /* ?shared=true usa o cursor tailable compartilhado do nó. */
+        boolean shared = serverRequest.queryParam("shared").map(Boolean::parseBoolean).orElse(false);
+        /* Filtros do stream. O último id recebido pode vir no ?lastId= ou no header Last-Event-ID. */
+        ItemStreamFilter filter;
+        /* ?overflow= define o que fazer se o cliente for lento. */
+        OverflowPolicy overflow;
+        try {
+            filter = ItemStreamFilter.of(serverRequest.queryParams(),
+                    serverRequest.headers().asHttpHeaders().getFirst(LAST_EVENT_ID));
+            overflow = OverflowPolicy.from(serverRequest.queryParam("overflow").orElse(null));
+        } catch (ServerWebInputException e) {
+            return ServerResponse.badRequest().build();
+        }
 
         return ServerResponse.ok()
                 .contentType(MediaType.APPLICATION_STREAM_JSON)
                 /* findItemsBy() usa um cursor tailable, que dá a capacidade de stream. */
-                .body(itemReactiveCappedRepository.findItemsBy(), ItemCapped.class);
+                .body(itemCappedStream.stream(shared, filter, overflow), ItemCapped.class);
+
+
+    }
+
+    /**
+     * Stream em lotes, ex: ?batchSize=64&maxDelay=5. Cada lote é escrito com um único flush.
+     */
+    public Mono<ServerResponse> itemsStreamBatched(ServerRequest serverRequest) {
+        int batchSize;
+        Long maxDelay;
+        ItemStreamFilter filter;
+        OverflowPolicy overflow;
+        try {
+            batchSize = Integer.parseInt(serverRequest.queryParam("batchSize").orElse(""));
+            maxDelay = serverRequest.queryParam("maxDelay").map(Long::valueOf).orElse(null);
+            filter = ItemStreamFilter.of(serverRequest.queryParams(),
+                    serverRequest.headers().asHttpHeaders().getFirst(LAST_EVENT_ID));
+            overflow = OverflowPolicy.from(serverRequest.queryParam("overflow").orElse(null));
+        } catch (NumberFormatException | ServerWebInputException e) {
+            return ServerResponse.badRequest().build();
+        }
+        boolean shared = serverRequest.queryParam("shared").map(Boolean::parseBoolean).orElse(false);
 
+        Flux<ItemCapped> items = itemCappedStream.stream(shared, filter, overflow);
+        BodyInserter<Flux<ItemCapped>, ReactiveHttpOutputMessage> batched =
+                (outputMessage, context) -> itemStreamBatchWriter.write(outputMessage, items, batchSize, maxDelay);
 
+        return ServerResponse.ok()
+                .contentType(MediaType.APPLICATION_STREAM_JSON)
+                .body(batched);
+    }
+
+    /**
+     * Alterações dos itens (CREATE, UPDATE e DELETE). O id da última alteração recebida pode vir no
+     * ?lastId= ou no header Last-Event-ID.
+     */
+    public Mono<ServerResponse> itemChanges(ServerRequest serverRequest) {
+        String lastId = serverRequest.queryParam("lastId")
+                .orElse(serverRequest.headers().asHttpHeaders().getFirst(LAST_EVENT_ID));
+
+        return ServerResponse.ok()
+                .contentType(MediaType.APPLICATION_STREAM_JSON)
+                .body(itemChangeStream.changes(lastId), ItemChange.class);
+    }
+
+    /**
+     * Snapshot dos itens, um MARKER, e depois as alterações.
+     */
+    public Mono<ServerResponse> syncItems(ServerRequest serverRequest) {
+        return ServerResponse.ok()
+                .contentType(MediaType.APPLICATION_STREAM_JSON)
+                .body(itemSyncStream.sync(), ItemSyncEvent.class);
+    }
+
+    public Mono<ServerResponse> itemsSse(ServerRequest serverRequest) {
+        boolean shared = serverRequest.queryParam("shared").map(Boolean::parseBoolean).orElse(false);
+        ItemStreamFilter filter;
+        OverflowPolicy overflow;
+        try {
+            filter = ItemStreamFilter.of(serverRequest.queryParams(),
+                    serverRequest.headers().asHttpHeaders().getFirst(LAST_EVENT_ID));
+            overflow = OverflowPolicy.from(serverRequest.queryParam("overflow").orElse(null));
+        } catch (ServerWebInputException e) {
+            return ServerResponse.badRequest().build();
+        }
+
+        return ServerResponse.ok()
+                .contentType(MediaType.TEXT_EVENT_STREAM)
+                .body(itemCappedStream.sse(shared, filter, overflow),
+                        new ParameterizedTypeReference<ServerSentEvent<ItemCapped>>() {
+                        });
     }
 }
@@ -0,0 +1,127 @@
+package com.learnreactivespring.initialize;
+
+import com.learnreactivespring.document.Item;
+import com.learnreactivespring.repository.ItemReactiveRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Gera um catálogo sintético de item.seed.count itens, para testar listagem, busca e cache com volumes
+ * parecidos com os de produção. Usado pelo ItemDataInitializer quando item.seed.mode = generated.
+ * As descrições combinam marca, categoria e modelo, e os preços seguem uma distribuição log-normal em
+ * volta do preço típico de cada categoria, terminando em .99.
+ * Os lotes são gerados com um Random próprio (random-seed + número do lote), então o catálogo é o mesmo
+ * em toda execução, independente da ordem em que os lotes terminam.
+ * Os itens vão direto para o repository, sem passar pelo outbox de alterações nem pelo cache.
+ */
+@Component
+@Slf4j
+public class ItemCatalogSeeder {
+
+    private static final String[] BRANDS = {"Samsung", "LG", "Apple", "Sony", "Philips", "Dell", "Lenovo",
+            "Asus", "Xiaomi", "Motorola", "JBL", "Beats", "Bose", "Canon", "Nikon", "Logitech"};
+
+    private static final String[] CATEGORIES = {"TV", "Watch", "HeadPhones", "Notebook", "Smartphone",
+            "Tablet", "Speaker", "Camera", "Monitor", "Mouse", "Keyboard", "Charger"};
+
+    /* Preço típico (mediana) de cada categoria, na mesma ordem de CATEGORIES. */
+    private static final double[] CATEGORY_PRICES = {499.0, 299.0, 99.0, 899.0, 599.0,
+            349.0, 79.0, 649.0, 249.0, 29.0, 49.0, 19.0};
+
+    private static final String[] MODIFIERS = {"Pro", "Max", "Mini", "Plus", "Lite", "Ultra", "Air", "SE"};
+
+    @Autowired
+    private ItemReactiveRepository itemReactiveRepository;
+
+    @Value("${item.seed.count:100000}")
+    private long count;
+
+    @Value("${item.seed.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${item.seed.concurrency:4}")
+    private int concurrency;
+
+    @Value("${item.seed.price.sigma:0.5}")
+    private double priceSigma;
+
+    @Value("${item.seed.random-seed:42}")
+    private long randomSeed;
+
+    @Value("${item.seed.report-interval:5s}")
+    private Duration reportInterval;
+
+    /**
+     * Gera e grava o catálogo. No máximo concurrency lotes são gravados ao mesmo tempo, e os próximos só
+     * são gerados quando um deles termina, então a memória usada não depende do count.
+     *
+     * @return o número de itens gravados.
+     */
+    public Mono<Long> seed() {
+        if (count <= 0) {
+            return Mono.just(0L);
+        }
+        return Mono.defer(() -> {
+            AtomicLong inserted = new AtomicLong();
+            long startedAt = System.nanoTime();
+            long batches = (count + batchSize - 1) / batchSize;
+            log.info("Seeding {} items in {} batches of {}, {} at a time", count, batches, batchSize, concurrency);
+
+            Disposable progress = Flux.interval(reportInterval)
+                    .subscribe(i -> report(inserted.get(), startedAt));
+
+            return Flux.range(0, (int) batches)
+                    .map(this::batch)
+                    .flatMap(batch -> itemReactiveRepository.insert(batch).count(), concurrency)
+                    .doOnNext(inserted::addAndGet)
+                    .then(Mono.fromCallable(inserted::get))
+                    .doOnSuccess(total -> report(total, startedAt))
+                    .doFinally(signal -> progress.dispose());
+        });
+    }
+
+    private List<Item> batch(int index) {
+        Random random = new Random(randomSeed + index);
+        long first = (long) index * batchSize;
+        int size = (int) Math.min(batchSize, count - first);
+
+        List<Item> items = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            int category = random.nextInt(CATEGORIES.length);
+            items.add(new Item(null, description(random, category, first + i), price(random, category)));
+        }
+        return items;
+    }
+
+    private String description(Random random, int category, long sequence) {
+        return BRANDS[random.nextInt(BRANDS.length)] + " " + CATEGORIES[category] + " "
+                + MODIFIERS[random.nextInt(MODIFIERS.length)] + " " + sequence;
+    }
+
+    /**
+     * Log-normal em volta do preço da categoria: a maioria perto dele, alguns bem mais caros.
+     */
+    private Double price(Random random, int category) {
+        double price = CATEGORY_PRICES[category] * Math.exp(priceSigma * random.nextGaussian());
+        return Math.max(1, Math.round(price)) - 0.01;
+    }
+
+    private void report(long inserted, long startedAt) {
+        double seconds = Math.max(1, System.nanoTime() - startedAt) / 1_000_000_000.0;
+        log.info("Seeded {}/{} items ({}%) in {}s, {} items/s",
+                inserted, count, String.format("%.1f", inserted * 100.0 / count),
+                String.format("%.1f", seconds), String.format("%.0f", inserted / seconds));
+    }
+
+}
@@ -2,55 +2,136 @@ package com.learnreactivespring.initialize;
 
 import com.learnreactivespring.document.Item;
 import com.learnreactivespring.document.ItemCapped;
-import com.learnreactivespring.repository.ItemReactiveCappedRepository;
 import com.learnreactivespring.repository.ItemReactiveRepository;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.CommandLineRunner;
 import org.springframework.context.annotation.Profile;
 import org.springframework.data.mongodb.core.CollectionOptions;
-import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
 import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
-import java.time.Duration;
+import javax.annotation.PreDestroy;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Não deve ser executado no profile de teste.
+ * A inicialização é um pipeline reativo: a capped collection (seguida do gerador de eventos, que grava
+ * nela) e os itens da collection principal são preparados em paralelo, sem bloquear o run. Cada passo loga
+ * a sua duração, e o ItemStartupHealthIndicator só fica UP quando todos terminam.
  */
 @Component
 @Profile("!test")
 @Slf4j
 public class ItemDataInitializer implements CommandLineRunner {
 
+    private static final String GENERATED = "generated";
+
     @Autowired
     private ItemReactiveRepository itemReactiveRepository;
 
     @Autowired
-    private ItemReactiveCappedRepository itemReactiveCappedRepository;
+    private ItemEventProducer itemEventProducer;
+
+    @Autowired
+    private ItemCatalogSeeder itemCatalogSeeder;
+
+    @Autowired
+    private ItemIndexInitializer itemIndexInitializer;
 
     @Autowired
-    MongoOperations mongoOperations;
+    private ItemStartupHealthIndicator itemStartupHealthIndicator;
+
+    @Autowired
+    ReactiveMongoOperations reactiveMongoOperations;
+
+    @Value("${item.seed.mode:sample}")
+    private String seedMode;
+
+    @Value("${item.seed.wait:false}")
+    private boolean seedWait;
+
+    @Value("${item.stream.capped.max-documents:20}")
+    private long cappedMaxDocuments;
+
+    @Value("${item.stream.capped.size:50KB}")
+    private DataSize cappedSize;
+
+    /* O gerador de eventos, parado no shutdown. */
+    private volatile Disposable eventProducer;
 
     @Override
     public void run(String... args) throws Exception {
+        long startedAt = System.nanoTime();
+        /* Os índices da ItemCapped são criados pelo createCappedCollection, depois do create. */
+        itemIndexInitializer.recreatedOnStartup(ItemCapped.class);
+
+        Mono<Void> startup = Mono.when(
+                step("capped-collection", createCappedCollection())
+                        .then(step("event-producer", dataSetUpForCappedCollection())),
+                step("items", initialDataSetUp()))
+                .doOnSuccess(v -> {
+                    itemStartupHealthIndicator.ready();
+                    log.info("Startup finished in {} ms", elapsedMillis(startedAt));
+                })
+                .doOnError(itemStartupHealthIndicator::failed);
+
+        /* Só espera os passos terminarem se item.seed.wait = true. */
+        if (seedWait) {
+            startup.block();
+        } else {
+            startup.subscribe(null, error -> log.error("Startup failed", error));
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (eventProducer != null) {
+            eventProducer.dispose();
+        }
+    }
+
+    /**
+     * Mede e loga a duração do passo, e guarda no ItemStartupHealthIndicator.
+     */
+    private Mono<Void> step(String name, Mono<?> work) {
+        return Mono.defer(() -> {
+            long startedAt = System.nanoTime();
+            return work
+                    .then()
+                    .doOnSuccess(v -> {
+                        long millis = elapsedMillis(startedAt);
+                        itemStartupHealthIndicator.stepFinished(name, millis);
+                        log.info("Startup step {} finished in {} ms", name, millis);
+                    })
+                    .doOnError(error -> log.error("Startup step {} failed after {} ms", name, elapsedMillis(startedAt)));
+        });
+    }
 
-        initialDataSetUp();
-        createCappedCollection();
-        dataSetUpForCappedCollection();
+    private long elapsedMillis(long startedAt) {
+        return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startedAt);
     }
 
-    private void createCappedCollection() {
-        mongoOperations.dropCollection(ItemCapped.class);
-        mongoOperations.createCollection(ItemCapped.class, CollectionOptions.empty()
-                /* Limite máximo de documentos. */
-                .maxDocuments(20)
-                /* Tamanho da collection, em bytes. */
-                .size(50000)
-                /* Diz que é uma Capped Collection. */
-                .capped());
+    /**
+     * Os índices da ItemCapped são criados aqui, depois do create, e não pelo ItemIndexInitializer.
+     */
+    private Mono<Void> createCappedCollection() {
+        return reactiveMongoOperations.dropCollection(ItemCapped.class)
+                .then(reactiveMongoOperations.createCollection(ItemCapped.class, CollectionOptions.empty()
+                        /* Limite máximo de documentos. */
+                        .maxDocuments(cappedMaxDocuments)
+                        /* Tamanho da collection, em bytes. */
+                        .size(cappedSize.toBytes())
+                        /* Diz que é uma Capped Collection. */
+                        .capped()))
+                .then(itemIndexInitializer.ensureIndexes(ItemCapped.class));
     }
 
     private List<Item> data() {
@@ -61,26 +142,20 @@ public class ItemDataInitializer implements CommandLineRunner {
                 new Item("ABC", "Beats HeadPhones", 19.99));
     }
 
-    private void initialDataSetUp() {
-        itemReactiveRepository.deleteAll()
+    /**
+     * Com item.seed.mode = generated, além dos itens de exemplo grava o catálogo do ItemCatalogSeeder.
+     */
+    private Mono<Void> initialDataSetUp() {
+        return itemReactiveRepository.deleteAll()
                 .thenMany(Flux.fromIterable(data()))
                 .flatMap(itemReactiveRepository::save)
-                .thenMany(itemReactiveRepository.findAll())
-                .subscribe(item -> System.out.println("Item inserted from CommandLineRunner : " + item));
+                .doOnNext(item -> System.out.println("Item inserted from CommandLineRunner : " + item))
+                .then(GENERATED.equals(seedMode) ? itemCatalogSeeder.seed().then() : Mono.empty());
     }
 
-    private void dataSetUpForCappedCollection() {
-        /* Cria um novo item a cada segundo. */
-        Flux<ItemCapped> itemCappedFlux = Flux.interval(Duration.ofSeconds(1))
-                .map(i -> new ItemCapped(null, "Random Item " + i, 100.0 + i));
-
-        itemReactiveCappedRepository
-                /* O insert faz o subscribe no flux, e a cada novo item emitido, ele faz o insert na
-                 * base. */
-                .insert(itemCappedFlux)
-                .subscribe(itemCapped -> {
-                    log.info("Inserted Item is " + itemCapped);
-                });
+    private Mono<Void> dataSetUpForCappedCollection() {
+        /* Gera os eventos na taxa configurada em item.producer (por padrão, um por segundo). */
+        return Mono.fromRunnable(() -> eventProducer = itemEventProducer.start());
     }
 
 }
@@ -0,0 +1,227 @@
+package com.learnreactivespring.initialize;
+
+import com.learnreactivespring.document.ItemCapped;
+import com.learnreactivespring.stream.ItemEventStore;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.distribution.ValueAtPercentile;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+/**
+ * Gera eventos de ItemCapped sintéticos e grava no ItemEventStore, para reproduzir localmente a carga do
+ * stream de itens. Tudo é configurado em item.producer, e pode ser mudado por profile.
+ * Cada um dos parallelism produtores acorda a cada tick, calcula quantos eventos estão devidos para
+ * manter a taxa (rate, ou burst.rate durante um burst) e grava em lotes de batch-size.
+ * Se a gravação não acompanhar, os ticks atrasados são descartados, e a taxa alcançada fica abaixo da
+ * configurada. A taxa alcançada e os percentis de latência dos inserts são logados a cada report-interval,
+ * e ficam no Micrometer como item.producer.events e item.producer.insert.
+ */
+@Component
+@Slf4j
+public class ItemEventProducer {
+
+    private static final char[] LETTERS = "abcdefghijklmnopqrstuvwxyz".toCharArray();
+
+    @Autowired
+    private ItemEventStore itemEventStore;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${item.producer.rate:1}")
+    private double rate;
+
+    @Value("${item.producer.parallelism:1}")
+    private int parallelism;
+
+    @Value("${item.producer.batch-size:100}")
+    private int batchSize;
+
+    @Value("${item.producer.tick:100ms}")
+    private Duration tick;
+
+    @Value("${item.producer.burst.rate:0}")
+    private double burstRate;
+
+    @Value("${item.producer.burst.every:1m}")
+    private Duration burstEvery;
+
+    @Value("${item.producer.burst.duration:5s}")
+    private Duration burstDuration;
+
+    @Value("${item.producer.items:1000}")
+    private long items;
+
+    @Value("${item.producer.payload.distribution:uniform}")
+    private String payloadDistribution;
+
+    @Value("${item.producer.payload.min-size:0}")
+    private int payloadMinSize;
+
+    @Value("${item.producer.payload.max-size:0}")
+    private int payloadMaxSize;
+
+    @Value("${item.producer.report-interval:10s}")
+    private Duration reportInterval;
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private Counter events;
+
+    private Counter droppedTicks;
+
+    private Timer insertTimer;
+
+    @PostConstruct
+    public void init() {
+        events = Counter.builder("item.producer.events")
+                .description("Eventos sintéticos gravados no ItemEventStore")
+                .register(meterRegistry);
+        droppedTicks = Counter.builder("item.producer.dropped.ticks")
+                .description("Ticks descartados porque a gravação não acompanhou a taxa")
+                .register(meterRegistry);
+        insertTimer = Timer.builder("item.producer.insert")
+                .description("Latência de cada lote gravado no ItemEventStore")
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .register(meterRegistry);
+    }
+
+    /**
+     * Começa a produzir eventos, até o Disposable retornado ser descartado.
+     *
+     * @return
+     */
+    public Disposable start() {
+        long startedAt = System.nanoTime();
+        log.info("Producing {} events/s ({} during bursts) with {} producers, batches of {}",
+                rate, burstRate, parallelism, batchSize);
+
+        Disposable production = Flux.range(0, parallelism)
+                .flatMap(producer -> produce(startedAt), parallelism)
+                .subscribe(null, error -> log.error("Item event producer stopped", error));
+
+        AtomicLong reported = new AtomicLong();
+        Disposable report = Flux.interval(reportInterval)
+                .subscribe(i -> report(reported));
+
+        return Disposables.composite(production, report);
+    }
+
+    private Mono<Void> produce(long startedAt) {
+        /* Fração de evento que ficou para o próximo tick, para taxas que não dividem exato por tick. */
+        double[] carry = {0};
+
+        return Flux.interval(tick)
+                .onBackpressureDrop(t -> droppedTicks.increment())
+                .map(t -> {
+                    double due = carry[0] + currentRate(startedAt) * tick.toMillis() / 1000.0 / parallelism;
+                    int count = (int) due;
+                    carry[0] = due - count;
+                    return count;
+                })
+                .filter(count -> count > 0)
+                /* Um tick por vez; enquanto ele grava, os próximos são descartados pelo onBackpressureDrop. */
+                .concatMap(count -> Flux.range(0, count)
+                        .map(i -> nextItem())
+                        .buffer(batchSize)
+                        .concatMap(this::insert), 1)
+                .then();
+    }
+
+    private Mono<Void> insert(List<ItemCapped> batch) {
+        return Mono.defer(() -> {
+            long start = System.nanoTime();
+            return itemEventStore.appendAll(batch)
+                    .then()
+                    .doOnSuccess(v -> {
+                        insertTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+                        events.increment(batch.size());
+                    })
+                    /* Uma falha de gravação não para o produtor. */
+                    .onErrorResume(e -> {
+                        log.warn("Failed to insert a batch of {} events : {}", batch.size(), e.toString());
+                        return Mono.empty();
+                    });
+        });
+    }
+
+    private double currentRate(long startedAt) {
+        if (burstRate <= 0) {
+            return rate;
+        }
+        long elapsed = System.nanoTime() - startedAt;
+        return elapsed % burstEvery.toNanos() < burstDuration.toNanos() ? burstRate : rate;
+    }
+
+    /**
+     * Os eventos se revezam entre os items itens, então o mesmo item muda de preço várias vezes.
+     */
+    private ItemCapped nextItem() {
+        long i = sequence.getAndIncrement();
+        long item = i % items;
+        return new ItemCapped(null, "Random Item " + item + padding(payloadSize()), 100.0 + i, "item-" + item);
+    }
+
+    /**
+     * Tamanho do texto extra na descrição. uniform sorteia entre min-size e max-size; exponential
+     * gera a maioria perto do min-size e poucos grandes, com média em um quarto do intervalo.
+     */
+    private int payloadSize() {
+        if (payloadMaxSize <= payloadMinSize) {
+            return payloadMinSize;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int range = payloadMaxSize - payloadMinSize;
+        if ("exponential".equalsIgnoreCase(payloadDistribution)) {
+            double size = -Math.log(1 - random.nextDouble()) * range / 4;
+            return payloadMinSize + (int) Math.min(size, range);
+        }
+        return payloadMinSize + random.nextInt(range + 1);
+    }
+
+    private String padding(int size) {
+        if (size == 0) {
+            return "";
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        char[] chars = new char[size + 1];
+        chars[0] = ' ';
+        for (int i = 1; i < chars.length; i++) {
+            chars[i] = LETTERS[random.nextInt(LETTERS.length)];
+        }
+        return new String(chars);
+    }
+
+    private void report(AtomicLong reported) {
+        long total = (long) events.count();
+        double achieved = (total - reported.getAndSet(total)) / (reportInterval.toMillis() / 1000.0);
+
+        String percentiles = Arrays.stream(insertTimer.takeSnapshot().percentileValues())
+                .map(this::format)
+                .collect(Collectors.joining(" "));
+        log.info("Item event producer : {} events/s, {} events in total, dropped ticks {}, insert latency {}",
+                String.format("%.1f", achieved), total, (long) droppedTicks.count(), percentiles);
+    }
+
+    private String format(ValueAtPercentile value) {
+        return String.format("p%.0f=%.2fms", value.percentile() * 100, value.value(TimeUnit.MILLISECONDS));
+    }
+
+}
@@ -0,0 +1,75 @@
+package com.learnreactivespring.initialize;
+
+import com.learnreactivespring.document.Item;
+import com.learnreactivespring.document.ItemCapped;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.index.IndexResolver;
+import org.springframework.data.mongodb.core.index.MongoPersistentEntityIndexResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.util.ClassTypeInformation;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+/**
+ * Cria (ou só confirma, se já existirem) os índices declarados com @Indexed nos documentos.
+ * Roda em todos os profiles, inclusive no de teste, pois as consultas dependem dos índices.
+ * Os índices são criados depois que a aplicação sobe, sem bloquear: a aplicação já atende requisições
+ * enquanto o Mongo constrói os índices.
+ * Um documento cuja collection é recriada no startup (a ItemCapped, pelo ItemDataInitializer) fica de fora:
+ * quem recria cria também os índices, depois do create. Se o ensureIndex rodasse entre o drop e o create,
+ * o Mongo criaria uma collection normal, e o create da capped falharia.
+ */
+@Component
+@Slf4j
+public class ItemIndexInitializer {
+
+    @Autowired
+    private ReactiveMongoOperations reactiveMongoOperations;
+
+    @Autowired
+    private MongoMappingContext mongoMappingContext;
+
+    private final Set<Class<?>> recreatedOnStartup = ConcurrentHashMap.newKeySet();
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        Class<?>[] documentTypes = Stream.of(Item.class, ItemCapped.class)
+                .filter(documentType -> !recreatedOnStartup.contains(documentType))
+                .toArray(Class<?>[]::new);
+        ensureIndexes(documentTypes)
+                .subscribe(null, e -> log.error("Failed to create indexes", e));
+    }
+
+    /**
+     * Tira o documento do onApplicationReady. Tem que ser chamado antes do ApplicationReadyEvent, ex: por
+     * um CommandLineRunner.
+     */
+    public void recreatedOnStartup(Class<?> documentType) {
+        recreatedOnStartup.add(documentType);
+    }
+
+    public Mono<Void> ensureIndexes() {
+        return ensureIndexes(Item.class, ItemCapped.class);
+    }
+
+    public Mono<Void> ensureIndexes(Class<?>... documentTypes) {
+        IndexResolver indexResolver = new MongoPersistentEntityIndexResolver(mongoMappingContext);
+
+        return Flux.just(documentTypes)
+                .flatMap(documentType -> Flux.fromIterable(indexResolver.resolveIndexFor(ClassTypeInformation.from(documentType)))
+                        /* O ensureIndex não faz nada se o índice já existir com a mesma definição. */
+                        .flatMap(index -> reactiveMongoOperations.indexOps(documentType).ensureIndex(index))
+                        .doOnNext(indexName -> log.info("Index {} ready on {}", indexName, documentType.getSimpleName())))
+                .then();
+    }
+
+}
@@ -0,0 +1,50 @@
+package com.learnreactivespring.initialize;
+
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.ReactiveHealthIndicator;
+import org.springframework.context.annotation.Profile;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Readiness da inicialização do ItemDataInitializer, em /actuator/health como itemStartup.
+ * Fica OUT_OF_SERVICE até todos os passos terminarem, e DOWN se algum falhar. Os detalhes têm a duração
+ * de cada passo já concluído, em ms, e o erro, e só aparecem para usuários autenticados
+ * (management.endpoint.health.show-details).
+ */
+@Component
+@Profile("!test")
+public class ItemStartupHealthIndicator implements ReactiveHealthIndicator {
+
+    private final Map<String, Long> stepMillis = new LinkedHashMap<>();
+
+    private volatile boolean ready;
+
+    private volatile Throwable failure;
+
+    @Override
+    public Mono<Health> health() {
+        Health.Builder builder = failure != null ? Health.down().withDetail("error", failure.toString()) : ready ? Health.up() : Health.outOfService();
+        synchronized (stepMillis) {
+            return Mono.just(builder.withDetails(new LinkedHashMap<>(stepMillis)).build());
+        }
+    }
+
+    public void stepFinished(String step, long millis) {
+        synchronized (stepMillis) {
+            stepMillis.put(step, millis);
+        }
+    }
+
+    public void ready() {
+        ready = true;
+    }
+
+    public void failed(Throwable error) {
+        failure = error;
+    }
+
+}
@@ -0,0 +1,23 @@
+package com.learnreactivespring.repository;
+
+import com.learnreactivespring.document.ItemChange;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
+import org.springframework.data.mongodb.repository.Tailable;
+import reactor.core.publisher.Flux;
+
+public interface ItemChangeRepository extends ReactiveMongoRepository<ItemChange, String> {
+
+    /**
+     * Cursor tailable com todas as alterações que ainda estão no outbox.
+     */
+    @Tailable
+    Flux<ItemChange> findChangesBy();
+
+    /**
+     * Cursor tailable com as alterações feitas depois da alteração com o id informado.
+     */
+    @Tailable
+    Flux<ItemChange> findChangesByIdGreaterThan(ObjectId id);
+
+}
@@ -5,7 +5,7 @@ import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
 import org.springframework.data.mongodb.repository.Tailable;
 import reactor.core.publisher.Flux;
 
-public interface ItemReactiveCappedRepository extends ReactiveMongoRepository<ItemCapped, String> {
+public interface ItemReactiveCappedRepository extends ReactiveMongoRepository<ItemCapped, String>, ItemReactiveCappedRepositoryCustom {
 
     /**
      * Define um cursor Tailable, que fica sempre aberto.
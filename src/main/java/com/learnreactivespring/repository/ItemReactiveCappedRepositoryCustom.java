@@ -0,0 +1,18 @@
+package com.learnreactivespring.repository;
+
+import com.learnreactivespring.document.ItemCapped;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+
+public interface ItemReactiveCappedRepositoryCustom {
+
+    /**
+     * Abre um cursor tailable com a query informada. Os documentos que não passam no filtro da query
+     * nem saem do Mongo.
+     *
+     * @param query
+     * @return
+     */
+    Flux<ItemCapped> tail(Query query);
+
+}
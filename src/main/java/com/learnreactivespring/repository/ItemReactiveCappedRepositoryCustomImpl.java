@@ -0,0 +1,20 @@
+package com.learnreactivespring.repository;
+
+import com.learnreactivespring.document.ItemCapped;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.Query;
+import reactor.core.publisher.Flux;
+
+public class ItemReactiveCappedRepositoryCustomImpl implements ItemReactiveCappedRepositoryCustom {
+
+    @Autowired
+    private ReactiveMongoOperations reactiveMongoOperations;
+
+    @Override
+    public Flux<ItemCapped> tail(Query query) {
+        /* Equivalente ao @Tailable dos métodos do repository, mas com uma query montada em tempo de execução. */
+        return reactiveMongoOperations.tail(query, ItemCapped.class);
+    }
+
+}
@@ -4,7 +4,7 @@ import com.learnreactivespring.document.Item;
 import org.springframework.data.mongodb.repository.ReactiveMongoRepository;
 import reactor.core.publisher.Mono;
 
-public interface ItemReactiveRepository extends ReactiveMongoRepository<Item, String> {
+public interface ItemReactiveRepository extends ReactiveMongoRepository<Item, String>, ItemReactiveRepositoryCustom {
 
     Mono<Item> findByDescription(String description);
 
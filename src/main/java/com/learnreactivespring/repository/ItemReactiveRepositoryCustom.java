@@ -0,0 +1,42 @@
+package com.learnreactivespring.repository;
+
+import com.learnreactivespring.document.Item;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Operações que não podem ser derivadas pelo nome do método, e por isso são implementadas
+ * manualmente com o ReactiveMongoTemplate em ItemReactiveRepositoryCustomImpl.
+ */
+public interface ItemReactiveRepositoryCustom {
+
+    /**
+     * Atualiza a descrição e o preço do item em uma única operação atômica no banco.
+     *
+     * @param id
+     * @param item
+     * @return o item já atualizado, ou vazio se o id não existir.
+     */
+    Mono<Item> updateItem(String id, Item item);
+
+    /**
+     * Busca até limit itens ordenados pelo id, começando depois do id informado (paginação por keyset).
+     * Usa o índice do _id, então o custo não cresce com o número da página, como aconteceria com skip.
+     *
+     * @param after id do último item da página anterior, ou null para a primeira página.
+     * @param limit
+     * @return
+     */
+    Flux<Item> findPage(String after, int limit);
+
+    /**
+     * Percorre todos os itens ordenados pelo id, começando depois do id informado, sem limite. O cursor do
+     * Mongo busca no máximo batchSize documentos por vez, conforme a demanda de quem fez o subscribe.
+     *
+     * @param after
+     * @param batchSize
+     * @return
+     */
+    Flux<Item> streamAll(String after, int batchSize);
+
+}
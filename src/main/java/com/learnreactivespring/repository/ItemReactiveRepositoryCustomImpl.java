@@ -0,0 +1,69 @@
+package com.learnreactivespring.repository;
+
+import com.learnreactivespring.document.Item;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
+
+/**
+ * O Spring Data encontra essa classe pelo sufixo Impl e junta os métodos dela ao ItemReactiveRepository.
+ */
+public class ItemReactiveRepositoryCustomImpl implements ItemReactiveRepositoryCustom {
+
+    /* Código do tipo ObjectId no BSON, usado no $type. */
+    private static final int BSON_OBJECT_ID = 7;
+
+    @Autowired
+    private ReactiveMongoOperations reactiveMongoOperations;
+
+    @Override
+    public Mono<Item> updateItem(String id, Item item) {
+        Update update = new Update()
+                .set("description", item.getDescription())
+                .set("price", item.getPrice());
+
+        /* O findAndModify faz a busca e o $set em uma única ida ao banco, sem a janela entre o findById
+         * e o save onde outra requisição poderia sobrescrever a alteração. O returnNew faz ele
+         * retornar o documento depois da alteração. */
+        return reactiveMongoOperations.findAndModify(query(where("id").is(id)), update,
+                FindAndModifyOptions.options().returnNew(true), Item.class);
+    }
+
+    @Override
+    public Flux<Item> findPage(String after, int limit) {
+        return reactiveMongoOperations.find(sortedAfter(after).limit(limit), Item.class);
+    }
+
+    @Override
+    public Flux<Item> streamAll(String after, int batchSize) {
+        return reactiveMongoOperations.find(sortedAfter(after).cursorBatchSize(batchSize), Item.class)
+                /* Repassa a demanda para o cursor em lotes de batchSize, em vez de pedir tudo de uma vez. */
+                .limitRate(batchSize);
+    }
+
+    private Query sortedAfter(String after) {
+        Query query = new Query().with(Sort.by(Sort.Direction.ASC, "id"));
+        if (after == null) {
+            return query;
+        }
+        if (ObjectId.isValid(after)) {
+            return query.addCriteria(where("id").gt(new ObjectId(after)));
+        }
+        /* Ids informados manualmente (ex: "ABC") são Strings no banco. O Mongo ordena as Strings antes dos
+         * ObjectIds, mas o $gt só compara valores do mesmo tipo, por isso os ObjectIds entram pelo $type. */
+        return query.addCriteria(new Criteria().orOperator(
+                where("id").gt(after),
+                where("id").type(BSON_OBJECT_ID)));
+    }
+
+}
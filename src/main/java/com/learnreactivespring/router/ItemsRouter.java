@@ -9,8 +9,14 @@ import org.springframework.web.reactive.function.server.RouterFunction;
 import org.springframework.web.reactive.function.server.RouterFunctions;
 import org.springframework.web.reactive.function.server.ServerResponse;
 
+import static com.learnreactivespring.constants.ItemConstants.ITEM_BULK_FUNCTIONAL_END_POINT_V1;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_CHANGES_FUNCTIONAL_END_POINT_V1;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_EXPORT_FUNCTIONAL_END_POINT_V1;
 import static com.learnreactivespring.constants.ItemConstants.ITEM_FUNCTIONAL_END_POINT_V1;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_LOOKUP_FUNCTIONAL_END_POINT_V1;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_SSE_FUNCTIONAL_END_POINT_V1;
 import static com.learnreactivespring.constants.ItemConstants.ITEM_STREAM_FUNCTIONAL_END_POINT_V1;
+import static com.learnreactivespring.constants.ItemConstants.ITEM_SYNC_FUNCTIONAL_END_POINT_V1;
 import static org.springframework.web.reactive.function.server.RequestPredicates.*;
 
 @Configuration
@@ -20,12 +26,26 @@ public class ItemsRouter {
     public RouterFunction<ServerResponse> itemRouter(ItemsHandler itemsHandler) {
 
         return RouterFunctions
-                .route(GET(ITEM_FUNCTIONAL_END_POINT_V1).and(accept(MediaType.APPLICATION_JSON)),
+                /* As rotas com query param têm que vir antes do getAllItems, pois são avaliadas na ordem. */
+                .route(GET(ITEM_FUNCTIONAL_END_POINT_V1).and(queryParam("limit", limit -> true))
+                                .and(accept(MediaType.APPLICATION_JSON)),
+                        itemsHandler::getItemsPage)
+                .andRoute(GET(ITEM_FUNCTIONAL_END_POINT_V1).and(queryParam("ids", ids -> true))
+                                .and(accept(MediaType.APPLICATION_JSON)),
+                        itemsHandler::getItemsByIds)
+                .andRoute(GET(ITEM_FUNCTIONAL_END_POINT_V1).and(accept(MediaType.APPLICATION_JSON)),
                         itemsHandler::getAllItems)
+                .andRoute(GET(ITEM_EXPORT_FUNCTIONAL_END_POINT_V1).and(accept(MediaType.APPLICATION_STREAM_JSON)),
+                        itemsHandler::exportItems)
                 .andRoute(GET(ITEM_FUNCTIONAL_END_POINT_V1 + "/{id}").and(accept(MediaType.APPLICATION_JSON)),
                         itemsHandler::getOneItem)
                 .andRoute(POST(ITEM_FUNCTIONAL_END_POINT_V1).and(accept(MediaType.APPLICATION_JSON)),
                         itemsHandler::createItem)
+                .andRoute(POST(ITEM_BULK_FUNCTIONAL_END_POINT_V1)
+                                .and(contentType(MediaType.APPLICATION_JSON, MediaType.APPLICATION_STREAM_JSON)),
+                        itemsHandler::createItems)
+                .andRoute(POST(ITEM_LOOKUP_FUNCTIONAL_END_POINT_V1).and(accept(MediaType.APPLICATION_JSON)),
+                        itemsHandler::lookupItems)
                 .andRoute(DELETE(ITEM_FUNCTIONAL_END_POINT_V1 + "/{id}").and(accept(MediaType.APPLICATION_JSON)),
                         itemsHandler::deleteItem)
                 .andRoute(PUT(ITEM_FUNCTIONAL_END_POINT_V1 + "/{id}").and(accept(MediaType.APPLICATION_JSON)),
@@ -43,8 +63,17 @@ public class ItemsRouter {
     public RouterFunction<ServerResponse> itemStreamRouter(ItemsHandler itemsHandler) {
 
         return RouterFunctions
-                .route(GET(ITEM_STREAM_FUNCTIONAL_END_POINT_V1).and(accept(MediaType.APPLICATION_JSON)),
-                        itemsHandler::itemsStream);
+                /* Precisa vir antes da rota sem o batchSize. */
+                .route(GET(ITEM_STREAM_FUNCTIONAL_END_POINT_V1).and(queryParam("batchSize", batchSize -> true)),
+                        itemsHandler::itemsStreamBatched)
+                .andRoute(GET(ITEM_STREAM_FUNCTIONAL_END_POINT_V1).and(accept(MediaType.APPLICATION_JSON)),
+                        itemsHandler::itemsStream)
+                .andRoute(GET(ITEM_SSE_FUNCTIONAL_END_POINT_V1).and(accept(MediaType.TEXT_EVENT_STREAM)),
+                        itemsHandler::itemsSse)
+                .andRoute(GET(ITEM_CHANGES_FUNCTIONAL_END_POINT_V1),
+                        itemsHandler::itemChanges)
+                .andRoute(GET(ITEM_SYNC_FUNCTIONAL_END_POINT_V1),
+                        itemsHandler::syncItems);
 
     }
 
@@ -0,0 +1,130 @@
+package com.learnreactivespring.service;
+
+import com.learnreactivespring.document.Item;
+import com.learnreactivespring.dto.BulkItemResult;
+import com.learnreactivespring.repository.ItemReactiveRepository;
+import com.learnreactivespring.util.MongoErrors;
+import com.mongodb.bulk.BulkWriteError;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Inserção de muitos itens em lotes, usada pelo POST /v1/items/bulk e /v1/fun/items/bulk.
+ */
+@Component
+@Slf4j
+public class ItemBulkWriter {
+
+    @Autowired
+    private ItemReactiveRepository itemReactiveRepository;
+
+    @Autowired
+    private ItemChangePublisher itemChangePublisher;
+
+    @Value("${item.bulk.batch-size:500}")
+    private int defaultBatchSize;
+
+    @Value("${item.bulk.max-batch-size:5000}")
+    private int maxBatchSize;
+
+    /**
+     * Insere os itens em lotes de batchSize. Os itens são lidos do Flux conforme os lotes anteriores
+     * terminam, então o corpo da requisição não precisa estar inteiro em memória.
+     *
+     * @param items
+     * @param batchSize tamanho do lote, ou null para usar o item.bulk.batch-size.
+     * @return um resultado por item, na ordem em que foram recebidos.
+     */
+    public Flux<BulkItemResult> insert(Flux<Item> items, Integer batchSize) {
+        int size = batchSize == null ? defaultBatchSize : Math.max(1, Math.min(batchSize, maxBatchSize));
+
+        return items
+                .map(this::assignId)
+                .buffer(size)
+                /* concatMap: um lote por vez, mantendo a ordem dos resultados. O prefetch de 1 faz só o
+                 * próximo lote ficar montado enquanto o atual é gravado. */
+                .concatMap(this::insertBatch, 1);
+    }
+
+    /**
+     * O insert(Iterable) do repository faz um único insertMany no banco para o lote inteiro.
+     * Se o lote falhar (ex: id duplicado), o insertMany para no primeiro erro e os itens anteriores já
+     * foram gravados. O MongoBulkWriteException informa a posição do item que falhou; para os outros
+     * erros, como os ids são definidos antes do insert, dá para consultar quais itens estão no banco e
+     * reportar o resultado de cada um.
+     * As alterações dos itens gravados vão para o outbox em um único insert por lote.
+     */
+    private Flux<BulkItemResult> insertBatch(List<Item> batch) {
+        return itemReactiveRepository.insert(batch)
+                .collectList()
+                .flatMapMany(saved -> itemChangePublisher.created(saved).thenMany(Flux.fromIterable(saved)))
+                .map(BulkItemResult::created)
+                .onErrorResume(e -> {
+                    log.warn("Bulk insert of {} items failed : {}", batch.size(), e.toString());
+                    BulkWriteError writeError = MongoErrors.firstWriteError(e);
+                    if (writeError != null) {
+                        return publishCreated(resolve(batch, writeError));
+                    }
+                    List<String> ids = batch.stream().map(Item::getId).collect(Collectors.toList());
+                    return itemReactiveRepository.findAllById(ids)
+                            .collectMap(Item::getId, Function.identity())
+                            .flatMapMany(stored -> publishCreated(resolve(batch, stored, e)));
+                });
+    }
+
+    private Flux<BulkItemResult> publishCreated(List<BulkItemResult> results) {
+        List<Item> created = results.stream()
+                .filter(BulkItemResult::isCreated)
+                .map(BulkItemResult::getItem)
+                .collect(Collectors.toList());
+        return itemChangePublisher.created(created).thenMany(Flux.fromIterable(results));
+    }
+
+    /**
+     * Os itens antes da posição do erro foram gravados por este lote; o da posição falhou, e os
+     * seguintes não chegaram a ser enviados. Um item igual que já estava no banco não conta como criado.
+     */
+    private List<BulkItemResult> resolve(List<Item> batch, BulkWriteError writeError) {
+        List<BulkItemResult> results = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            Item item = batch.get(i);
+            if (i < writeError.getIndex()) {
+                results.add(BulkItemResult.created(item));
+            } else if (i == writeError.getIndex()) {
+                results.add(BulkItemResult.failed(item, writeError.getMessage()));
+            } else {
+                results.add(BulkItemResult.failed(item, "Not inserted : a previous item of the batch failed"));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Sem a posição do erro, um item só é considerado criado se estiver no banco igual ao enviado.
+     */
+    private List<BulkItemResult> resolve(List<Item> batch, Map<String, Item> stored, Throwable error) {
+        return batch.stream()
+                .map(item -> item.equals(stored.get(item.getId()))
+                        ? BulkItemResult.created(item)
+                        : BulkItemResult.failed(item, error.getMessage()))
+                .collect(Collectors.toList());
+    }
+
+    private Item assignId(Item item) {
+        if (item.getId() == null) {
+            item.setId(new ObjectId().toHexString());
+        }
+        return item;
+    }
+
+}
@@ -0,0 +1,128 @@
+package com.learnreactivespring.service;
+
+import com.learnreactivespring.document.Item;
+import com.learnreactivespring.document.ItemChange;
+import com.learnreactivespring.repository.ItemChangeRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.CollectionOptions;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Grava as alterações dos itens no outbox (a capped collection do ItemChange).
+ * Os métodos retornam depois que a alteração foi gravada, então quando a requisição de escrita responde, a
+ * alteração já está disponível para o /v1/stream/items/changes.
+ * A gravação do item e a do outbox não são atômicas (o outbox é capped, e não entra em transação). Se a
+ * gravação no outbox falhar, ela é repetida publish-retries vezes; se continuar falhando, a alteração é
+ * perdida e fica só no log de erro, e a escrita do item não falha, pois o item já foi gravado. Um consumidor
+ * que precise de todas as alterações deve recarregar os itens periodicamente. Uma repetição depois de um
+ * insertMany parcial pode gravar a mesma alteração duas vezes.
+ */
+@Component
+@Slf4j
+public class ItemChangePublisher {
+
+    @Autowired
+    private ItemChangeRepository itemChangeRepository;
+
+    @Autowired
+    private ReactiveMongoOperations reactiveMongoOperations;
+
+    /* Tamanho do outbox. Um consumidor que ficar desconectado por mais alterações do que isso precisa
+     * recarregar os itens. */
+    @Value("${item.changes.max-documents:10000}")
+    private long maxDocuments;
+
+    @Value("${item.changes.size:10485760}")
+    private long size;
+
+    @Value("${item.changes.publish-retries:3}")
+    private long publishRetries;
+
+    @Value("${item.changes.publish-backoff:100ms}")
+    private Duration publishBackoff;
+
+    /* Completa quando o outbox existe. Toda gravação espera por ele. */
+    private Mono<Void> outbox;
+
+    /**
+     * Começa a criar o outbox, sem bloquear o startup.
+     */
+    @PostConstruct
+    public void init() {
+        outbox = createOutbox().cache();
+        outbox.subscribe();
+    }
+
+    /**
+     * Cria o outbox se ele ainda não existir. Tem que ser antes da primeira escrita, pois o Mongo criaria
+     * uma collection normal, e o cursor tailable só funciona em capped collection.
+     */
+    private Mono<Void> createOutbox() {
+        return reactiveMongoOperations.collectionExists(ItemChange.class)
+                .filter(exists -> !exists)
+                .flatMap(missing -> reactiveMongoOperations.createCollection(ItemChange.class, CollectionOptions.empty()
+                        .maxDocuments(maxDocuments)
+                        .size(size)
+                        .capped()))
+                .doOnNext(collection -> log.info("Created item change outbox"))
+                /* Outro nó pode ter criado a collection ao mesmo tempo. */
+                .onErrorResume(e -> {
+                    log.warn("Could not create item change outbox : {}", e.toString());
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    public Mono<Item> created(Item item) {
+        return publish(Collections.singletonList(change(ItemChange.Op.CREATE, item))).thenReturn(item);
+    }
+
+    public Mono<Void> created(Collection<Item> items) {
+        return publish(items.stream()
+                .map(item -> change(ItemChange.Op.CREATE, item))
+                .collect(Collectors.toList()));
+    }
+
+    public Mono<Item> updated(Item item) {
+        return publish(Collections.singletonList(change(ItemChange.Op.UPDATE, item))).thenReturn(item);
+    }
+
+    public Mono<Void> deleted(String itemId) {
+        return publish(Collections.singletonList(new ItemChange(null, ItemChange.Op.DELETE, itemId, Collections.emptyMap())));
+    }
+
+    private Mono<Void> publish(Collection<ItemChange> changes) {
+        if (changes.isEmpty()) {
+            return Mono.empty();
+        }
+        /* Um único insertMany para o lote inteiro. */
+        return outbox.then(Mono.defer(() -> itemChangeRepository.insert(changes).then()))
+                .retryWhen(Retry.backoff(publishRetries, publishBackoff))
+                .onErrorResume(e -> {
+                    log.error("Lost {} item changes, the outbox write failed after {} retries : {}",
+                            changes.size(), publishRetries, e.toString());
+                    return Mono.empty();
+                });
+    }
+
+    private ItemChange change(ItemChange.Op op, Item item) {
+        Map<String, Object> fields = new LinkedHashMap<>();
+        fields.put("description", item.getDescription());
+        fields.put("price", item.getPrice());
+        return new ItemChange(null, op, item.getId(), fields);
+    }
+
+}
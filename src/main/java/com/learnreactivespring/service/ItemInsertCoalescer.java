@@ -0,0 +1,265 @@
+package com.learnreactivespring.service;
+
+import com.learnreactivespring.document.Item;
+import com.learnreactivespring.repository.ItemReactiveRepository;
+import com.learnreactivespring.util.Batches;
+import com.learnreactivespring.util.MongoErrors;
+import com.mongodb.bulk.BulkWriteError;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Component;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.publisher.UnicastProcessor;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Junta os itens criados ao mesmo tempo pelo POST /v1/items (e /v1/fun/items) em lotes, e grava cada
+ * lote com um único insertMany. Cada requisição continua recebendo o seu próprio item salvo, com o id.
+ * O lote é gravado quando chega em max-batch-size itens ou quando passa max-delay desde o primeiro item.
+ * Desligado por padrão (item.insert-coalescing.enabled). Desligado, o create usa o save do repository.
+ * Ligado, o create usa insert, então um id que já existe retorna 409 em vez de sobrescrever o item.
+ */
+@Component
+@Slf4j
+public class ItemInsertCoalescer {
+
+    @Autowired
+    private ItemReactiveRepository itemReactiveRepository;
+
+    @Autowired
+    private ItemChangePublisher itemChangePublisher;
+
+    @Value("${item.insert-coalescing.enabled:false}")
+    private boolean enabled;
+
+    @Value("${item.insert-coalescing.max-batch-size:256}")
+    private int maxBatchSize;
+
+    @Value("${item.insert-coalescing.max-delay:2ms}")
+    private Duration maxDelay;
+
+    /* Quantos lotes podem estar sendo gravados ao mesmo tempo. */
+    @Value("${item.insert-coalescing.concurrency:4}")
+    private int concurrency;
+
+    private volatile Batching batching;
+
+    private volatile boolean stopped;
+
+    @PostConstruct
+    public void start() {
+        if (!enabled) {
+            return;
+        }
+        batching = new Batching();
+    }
+
+    /**
+     * As requisições que ainda estão esperando o lote recebem erro.
+     */
+    @PreDestroy
+    public void stop() {
+        stopped = true;
+        if (batching != null) {
+            batching.close(new IllegalStateException("Item insert coalescer stopped"));
+        }
+    }
+
+    public Mono<Item> create(Item item) {
+        if (!enabled) {
+            return itemReactiveRepository.save(item)
+                    .flatMap(itemChangePublisher::created);
+        }
+        return Mono.create(sink -> submit(new PendingInsert(assignId(item), sink)));
+    }
+
+    private void submit(PendingInsert insert) {
+        if (stopped) {
+            insert.sink.error(new IllegalStateException("Item insert coalescer stopped"));
+            return;
+        }
+        Batching current = batching;
+        insert.owner = current.pending;
+        current.pending.add(insert);
+        if (current.closed) {
+            /* O pipeline terminou entre a leitura do batching e o add. Se o close ainda não respondeu
+             * esta requisição, ela vai para o pipeline novo. */
+            if (current.pending.remove(insert)) {
+                submit(insert);
+            }
+            return;
+        }
+        current.sink.next(insert);
+    }
+
+    private Mono<Void> insertBatch(List<PendingInsert> batch) {
+        List<Item> items = batch.stream().map(pending -> pending.item).collect(Collectors.toList());
+
+        return itemReactiveRepository.insert(items)
+                .collectList()
+                .flatMap(saved -> itemChangePublisher.created(saved).thenReturn(saved))
+                .doOnNext(saved -> {
+                    /* O insertMany retorna os itens na mesma ordem em que foram enviados. */
+                    for (int i = 0; i < batch.size(); i++) {
+                        batch.get(i).success(saved.get(i));
+                    }
+                })
+                .then()
+                .onErrorResume(e -> {
+                    log.warn("Coalesced insert of {} items failed : {}", batch.size(), e.toString());
+                    BulkWriteError writeError = MongoErrors.firstWriteError(e);
+                    return writeError != null
+                            ? resolveFailedBatch(batch, writeError, e)
+                            : resolveFailedBatch(batch);
+                });
+    }
+
+    /**
+     * O insertMany para no primeiro erro: os itens antes da posição do erro foram gravados por este lote,
+     * o da posição falhou, e os seguintes não chegaram a ser enviados e vão em um lote novo. Um item igual
+     * que já estava no banco é um conflito, não um item criado.
+     */
+    private Mono<Void> resolveFailedBatch(List<PendingInsert> batch, BulkWriteError writeError, Throwable error) {
+        List<PendingInsert> inserted = batch.subList(0, writeError.getIndex());
+        PendingInsert failed = batch.get(writeError.getIndex());
+        List<PendingInsert> notSent = batch.subList(writeError.getIndex() + 1, batch.size());
+
+        return itemChangePublisher.created(inserted.stream().map(pending -> pending.item).collect(Collectors.toList()))
+                .then(Mono.fromRunnable(() -> {
+                    inserted.forEach(pending -> pending.success(pending.item));
+                    failed.error(writeError.getCode() == MongoErrors.DUPLICATE_KEY ? conflict(failed.item) : error);
+                }))
+                .then(notSent.isEmpty() ? Mono.empty() : Mono.defer(() -> insertBatch(notSent)));
+    }
+
+    /**
+     * Sem a posição do erro, os itens que estão no banco iguais aos enviados são confirmados, e os outros
+     * são gravados um a um, para que só a requisição que causou o erro receba o erro.
+     */
+    private Mono<Void> resolveFailedBatch(List<PendingInsert> batch) {
+        List<String> ids = batch.stream().map(pending -> pending.item.getId()).collect(Collectors.toList());
+
+        return itemReactiveRepository.findAllById(ids)
+                .collectMap(Item::getId, Function.identity())
+                .flatMapMany(stored -> Flux.fromIterable(batch)
+                        .concatMap(pending -> insertPending(pending, stored)))
+                .then();
+    }
+
+    private Mono<Item> insertPending(PendingInsert pending, Map<String, Item> stored) {
+        Mono<Item> insert = pending.item.equals(stored.get(pending.item.getId()))
+                /* Já foi gravado pelo insertMany, só falta o outbox. */
+                ? itemChangePublisher.created(pending.item)
+                : itemReactiveRepository.insert(pending.item)
+                        .onErrorMap(DuplicateKeyException.class, e -> conflict(pending.item))
+                        .flatMap(itemChangePublisher::created);
+        return insert
+                .doOnNext(pending::success)
+                .doOnError(pending::error)
+                .onErrorResume(e -> Mono.empty());
+    }
+
+    private static ResponseStatusException conflict(Item item) {
+        return new ResponseStatusException(HttpStatus.CONFLICT, "Item " + item.getId() + " already exists");
+    }
+
+    /* O id é definido antes do insert para conseguir identificar cada item depois de um erro no lote. */
+    private Item assignId(Item item) {
+        if (item.getId() == null) {
+            item.setId(new ObjectId().toHexString());
+        }
+        return item;
+    }
+
+    /**
+     * Um pipeline de lotes. Se ele terminar com erro (um bug, já que as falhas de gravação são tratadas no
+     * insertBatch), as requisições pendentes recebem o erro e um pipeline novo é criado, para os próximos
+     * creates não ficarem esperando para sempre.
+     */
+    private final class Batching {
+
+        /* Requisições que entraram neste pipeline e ainda não foram respondidas. */
+        private final Set<PendingInsert> pending = ConcurrentHashMap.newKeySet();
+
+        private final FluxSink<PendingInsert> sink;
+
+        private final Disposable subscription;
+
+        private volatile boolean closed;
+
+        private Batching() {
+            UnicastProcessor<PendingInsert> processor = UnicastProcessor.create();
+            /* O sink do processor serializa as chamadas, então pode ser usado por várias requisições ao
+             * mesmo tempo. */
+            sink = processor.sink();
+            /* O Batches.bufferTimeout só fecha um lote quando o flatMap tem espaço para ele. Os creates que
+             * chegam enquanto os concurrency lotes estão sendo gravados esperam no processor. */
+            subscription = Batches.bufferTimeout(processor, maxBatchSize, maxDelay)
+                    .flatMap(ItemInsertCoalescer.this::insertBatch, concurrency)
+                    .subscribe(null, this::restart);
+        }
+
+        private void restart(Throwable error) {
+            log.error("Insert coalescing failed, restarting", error);
+            if (!stopped) {
+                batching = new Batching();
+            }
+            close(error);
+        }
+
+        private void close(Throwable error) {
+            closed = true;
+            if (subscription != null) {
+                subscription.dispose();
+            }
+            for (PendingInsert insert : pending) {
+                if (pending.remove(insert)) {
+                    insert.sink.error(error);
+                }
+            }
+        }
+
+    }
+
+    @RequiredArgsConstructor
+    private static class PendingInsert {
+
+        private final Item item;
+
+        private final MonoSink<Item> sink;
+
+        /* O pending do Batching em que a requisição entrou. */
+        private Set<PendingInsert> owner;
+
+        private void success(Item saved) {
+            owner.remove(this);
+            sink.success(saved);
+        }
+
+        private void error(Throwable error) {
+            owner.remove(this);
+            sink.error(error);
+        }
+
+    }
+
+}
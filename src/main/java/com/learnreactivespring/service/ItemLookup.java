@@ -0,0 +1,57 @@
+package com.learnreactivespring.service;
+
+import com.learnreactivespring.dto.ItemLookupResult;
+import com.learnreactivespring.repository.ItemReactiveRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.util.Collection;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Busca vários itens pelo id com uma única consulta $in, em vez de um findById por item.
+ */
+@Component
+public class ItemLookup {
+
+    @Autowired
+    private ItemReactiveRepository itemReactiveRepository;
+
+    /* Listas muito grandes são quebradas em várias consultas $in desse tamanho. */
+    @Value("${item.lookup.chunk-size:500}")
+    private int chunkSize;
+
+    /**
+     * Retorna os itens encontrados à medida em que chegam do banco e, no final, um resultado com
+     * found = false para cada id que não foi encontrado. Ids repetidos são buscados uma vez só.
+     *
+     * @param ids
+     * @return
+     */
+    public Flux<ItemLookupResult> lookup(Collection<String> ids) {
+        /* O defer faz cada subscribe ter os seus próprios conjuntos, e não compartilhar os found de outro. */
+        return Flux.defer(() -> {
+            Set<String> requested = new LinkedHashSet<>(ids);
+            Set<String> found = ConcurrentHashMap.newKeySet();
+
+            Flux<ItemLookupResult> foundItems = Flux.fromIterable(requested)
+                    .buffer(chunkSize)
+                    /* O findAllById faz a consulta com $in no _id. */
+                    .concatMap(chunk -> itemReactiveRepository.findAllById(chunk))
+                    .doOnNext(item -> found.add(item.getId()))
+                    .map(ItemLookupResult::found);
+
+            /* O defer faz a lista de não encontrados ser montada só depois que todos os itens chegaram. */
+            Flux<ItemLookupResult> missingItems = Flux.defer(() -> Flux.fromIterable(requested)
+                    .filter(id -> !found.contains(id))
+                    .map(ItemLookupResult::missing));
+
+            return foundItems.concatWith(missingItems);
+        });
+    }
+
+}
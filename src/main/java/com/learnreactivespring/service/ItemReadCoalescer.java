@@ -0,0 +1,107 @@
+package com.learnreactivespring.service;
+
+import com.learnreactivespring.document.Item;
+import com.learnreactivespring.repository.ItemReactiveRepository;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Single-flight das leituras do ItemReactiveRepository: se a mesma consulta (mesmo id, ou o findAll) já
+ * está em andamento, quem chega depois recebe o resultado dessa mesma consulta, em vez de fazer outra ida
+ * ao banco. Quando a consulta termina, ela sai do mapa e a próxima vai ao banco de novo.
+ * O findAll é entregue como uma lista só, que o GET /v1/items já monta inteira para responder o JSON, e
+ * assim quem chega no meio da consulta também recebe os itens lidos antes dele.
+ * Os contadores ficam no Micrometer como item.reads, com as tags query e result (executed ou coalesced).
+ */
+@Component
+public class ItemReadCoalescer {
+
+    @Autowired
+    private ItemReactiveRepository itemReactiveRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Value("${item.read-coalescing.enabled:true}")
+    private boolean enabled;
+
+    private static final String FIND_ALL = "findAll";
+
+    private final ConcurrentMap<String, Mono<Item>> findByIdInFlight = new ConcurrentHashMap<>();
+
+    private final ConcurrentMap<String, Mono<List<Item>>> findAllInFlight = new ConcurrentHashMap<>();
+
+    private Counter findByIdExecuted;
+    private Counter findByIdCoalesced;
+    private Counter findAllExecuted;
+    private Counter findAllCoalesced;
+
+    @PostConstruct
+    public void init() {
+        findByIdExecuted = counter("findById", "executed");
+        findByIdCoalesced = counter("findById", "coalesced");
+        findAllExecuted = counter(FIND_ALL, "executed");
+        findAllCoalesced = counter(FIND_ALL, "coalesced");
+    }
+
+    public Mono<Item> findById(String id) {
+        if (!enabled) {
+            return itemReactiveRepository.findById(id);
+        }
+        /* O defer faz a consulta ao mapa acontecer no subscribe, e não na montagem do Mono. */
+        return Mono.defer(() -> {
+            boolean[] executed = {false};
+            Mono<Item> inFlight = findByIdInFlight.computeIfAbsent(id, key -> {
+                executed[0] = true;
+                return itemReactiveRepository.findById(key)
+                        .doFinally(signalType -> findByIdInFlight.remove(key))
+                        /* O cache faz um único subscribe no findById e repassa o resultado para todos. */
+                        .cache();
+            });
+            (executed[0] ? findByIdExecuted : findByIdCoalesced).increment();
+            return inFlight;
+        });
+    }
+
+    /**
+     * Todos os itens, em uma lista que não pode ser alterada, já que ela é a mesma para todas as
+     * requisições que compartilharam a consulta.
+     */
+    public Mono<List<Item>> findAll() {
+        if (!enabled) {
+            return itemReactiveRepository.findAll().collectList();
+        }
+        return Mono.defer(() -> {
+            boolean[] executed = {false};
+            Mono<List<Item>> inFlight = findAllInFlight.computeIfAbsent(FIND_ALL, key -> {
+                executed[0] = true;
+                return itemReactiveRepository.findAll()
+                        .collectList()
+                        .map(Collections::unmodifiableList)
+                        .doFinally(signalType -> findAllInFlight.remove(key))
+                        .cache();
+            });
+            (executed[0] ? findAllExecuted : findAllCoalesced).increment();
+            return inFlight;
+        });
+    }
+
+    private Counter counter(String query, String result) {
+        return Counter.builder("item.reads")
+                .description("Leituras de itens, separadas entre as que foram ao banco e as que foram agrupadas")
+                .tag("query", query)
+                .tag("result", result)
+                .register(meterRegistry);
+    }
+
+}
@@ -0,0 +1,272 @@
+package com.learnreactivespring.stream;
+
+import com.learnreactivespring.document.ItemCapped;
+import com.learnreactivespring.document.ItemCappedBucket;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
+import org.springframework.data.mongodb.core.index.Index;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Guarda os eventos em buckets (ItemCappedBucket): cada lote é um único $push com upsert no bucket do
+ * intervalo atual, enquanto o lote couber nos max-events eventos do bucket. Assim, são poucos documentos e
+ * poucas entradas de índice, em vez de um documento por evento.
+ * Como um cursor tailable só vê documentos novos, e não as alterações nos buckets, a leitura consulta os
+ * buckets recentes a cada poll-interval, e guarda quantos eventos já leu de cada um. Como o $push só
+ * acrescenta no fim do bucket, os eventos novos são os depois dessa posição, qualquer que seja a ordem
+ * dos ids; com vários escritores, os ObjectIds não chegam em ordem. A consulta dos buckets recentes traz só
+ * o count de cada um, e só os buckets com eventos novos são lidos, com um $slice a partir dessa posição.
+ * Só são consultados os buckets do intervalo mais recente e do anterior: um append que demore mais que
+ * um interval para gravar, em um bucket mais antigo que isso, não é visto pelos leitores.
+ * Os buckets são removidos pelo TTL do índice do start, depois de retention.
+ */
+@Component
+@ConditionalOnProperty(name = "item.stream.store", havingValue = "bucketed")
+@Slf4j
+public class BucketedItemEventStore implements ItemEventStore {
+
+    @Autowired
+    private ReactiveMongoOperations reactiveMongoOperations;
+
+    @Value("${item.stream.bucket.interval:1s}")
+    private Duration interval;
+
+    @Value("${item.stream.bucket.max-events:500}")
+    private int maxEvents;
+
+    @Value("${item.stream.bucket.poll-interval:200ms}")
+    private Duration pollInterval;
+
+    @Value("${item.stream.bucket.retention:1h}")
+    private Duration retention;
+
+    /**
+     * Mesmo esquema do ItemIndexInitializer: os índices são criados depois que a aplicação sobe, sem
+     * bloquear.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void onApplicationReady() {
+        ensureIndexes()
+                .subscribe(null, e -> log.error("Failed to create bucket indexes", e));
+    }
+
+    /**
+     * O índice do start é usado pelo upsert do append e pela leitura dos buckets recentes, e remove os
+     * buckets antigos.
+     */
+    public Mono<Void> ensureIndexes() {
+        return reactiveMongoOperations.indexOps(ItemCappedBucket.class)
+                .ensureIndex(new Index().on("start", Sort.Direction.ASC).expire(retention.getSeconds(), TimeUnit.SECONDS))
+                .then();
+    }
+
+    @Override
+    public Mono<ItemCapped> append(ItemCapped itemCapped) {
+        return push(Collections.singletonList(itemCapped)).next();
+    }
+
+    /**
+     * Um $push com $each por bucket. Um lote maior que max-events é dividido em vários buckets.
+     */
+    @Override
+    public Flux<ItemCapped> appendAll(List<ItemCapped> itemsCapped) {
+        return Flux.fromIterable(itemsCapped)
+                .buffer(maxEvents)
+                .concatMap(this::push);
+    }
+
+    private Flux<ItemCapped> push(List<ItemCapped> events) {
+        return Mono.defer(() -> {
+            for (ItemCapped itemCapped : events) {
+                if (itemCapped.getId() == null) {
+                    itemCapped.setId(new ObjectId().toHexString());
+                }
+            }
+            long now = System.currentTimeMillis();
+            Date start = new Date(now - now % interval.toMillis());
+
+            /* Se o lote não couber no bucket do intervalo, nenhum documento passa no filtro do count, e o
+             * upsert cria um bucket novo para o mesmo intervalo. */
+            Query bucket = new Query(where("start").is(start).and("count").lte(maxEvents - events.size()));
+            Update update = new Update()
+                    .inc("count", events.size())
+                    .push("events").each(events.toArray());
+
+            return reactiveMongoOperations.upsert(bucket, update, ItemCappedBucket.class);
+        }).thenMany(Flux.fromIterable(events));
+    }
+
+    @Override
+    public Flux<ItemCapped> tail(ItemStreamFilter filter) {
+        return Flux.defer(() -> {
+            Progress progress = new Progress();
+
+            return Flux.defer(() -> progress.started ? read(progress) : start(progress, filter.getLastId()))
+                    .repeatWhen(completed -> completed.delayElements(pollInterval))
+                    /* Os eventos ficam dentro dos buckets, então o filtro é aplicado em memória. */
+                    .filter(filter::test);
+        });
+    }
+
+    /**
+     * Começa depois do lastId, se o bucket dele ainda estiver guardado. Sem o lastId, pelos eventos do
+     * bucket mais recente, assim como a capped collection devolve os últimos documentos guardados.
+     * Os buckets do mesmo intervalo ou de antes do bucket de partida são considerados já lidos.
+     */
+    private Flux<ItemCapped> start(Progress progress, String lastId) {
+        progress.started = true;
+        /* Sem índice nos eventos: a busca pelo lastId percorre os buckets, mas só acontece ao reconectar. */
+        Query anchor = lastId != null
+                ? new Query(where("events.id").is(lastId))
+                : new Query().with(Sort.by(Sort.Direction.DESC, "start", "id")).limit(1);
+
+        return reactiveMongoOperations.findOne(anchor, ItemCappedBucket.class)
+                .flatMapMany(bucket -> {
+                    int position = lastId != null ? positionAfter(bucket, lastId) : 0;
+                    Query window = new Query(where("start").gte(before(bucket.getStart())));
+                    window.fields().exclude("events");
+                    return reactiveMongoOperations.find(window, ItemCappedBucket.class)
+                            .doOnNext(other -> progress.seen.put(other.getId(), alreadyRead(other, bucket, position)))
+                            .then(Mono.fromRunnable(() -> progress.from = before(bucket.getStart())))
+                            .thenMany(Flux.defer(() -> read(progress)));
+                })
+                /* Sem buckets, ou o lastId já expirou: lê tudo o que estiver guardado. */
+                .switchIfEmpty(Flux.defer(() -> read(progress)));
+    }
+
+    private int positionAfter(ItemCappedBucket bucket, String lastId) {
+        List<ItemCapped> events = bucket.getEvents();
+        for (int i = 0; i < events.size(); i++) {
+            if (lastId.equals(events.get(i).getId())) {
+                return i + 1;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Quantos eventos de outro bucket contam como lidos, ao começar pela posição do bucket de partida.
+     */
+    private int alreadyRead(ItemCappedBucket other, ItemCappedBucket anchor, int position) {
+        if (other.getId().equals(anchor.getId())) {
+            return position;
+        }
+        int order = other.getStart().compareTo(anchor.getStart());
+        if (order == 0) {
+            order = new ObjectId(other.getId()).compareTo(new ObjectId(anchor.getId()));
+        }
+        return order < 0 ? other.getCount() : 0;
+    }
+
+    /**
+     * Os eventos novos dos buckets recentes, bucket por bucket. Os buckets que não mudaram desde a última
+     * leitura não são baixados.
+     */
+    private Flux<ItemCapped> read(Progress progress) {
+        Query query = new Query(where("start").gte(progress.from))
+                .with(Sort.by(Sort.Direction.ASC, "start", "id"));
+        query.fields().exclude("events");
+
+        return reactiveMongoOperations.find(query, ItemCappedBucket.class)
+                .collectList()
+                .flatMapMany(buckets -> Flux.fromIterable(progress.changed(buckets))
+                        .concatMap(bucket -> eventsAfter(bucket, progress.seen(bucket))
+                                .flatMapIterable(events -> progress.read(bucket, events)))
+                        .doOnComplete(() -> progress.slide(buckets)));
+    }
+
+    /**
+     * Os eventos do bucket depois dos read primeiros, que já foram lidos.
+     */
+    private Mono<List<ItemCapped>> eventsAfter(ItemCappedBucket bucket, int read) {
+        Query query = new Query(where("id").is(bucket.getId()));
+        query.fields().slice("events", read, maxEvents);
+
+        return reactiveMongoOperations.findOne(query, ItemCappedBucket.class)
+                .map(ItemCappedBucket::getEvents);
+    }
+
+    private Date before(Date start) {
+        return new Date(start.getTime() - interval.toMillis());
+    }
+
+    /**
+     * Quantos eventos cada leitor já leu de cada bucket recente. Usado só pelas leituras de um leitor, que
+     * são uma de cada vez.
+     */
+    private class Progress {
+
+        private boolean started;
+
+        /* Início do bucket mais antigo que ainda é consultado. */
+        private Date from = new Date(0);
+
+        private Map<String, Integer> seen = new HashMap<>();
+
+        private int seen(ItemCappedBucket bucket) {
+            return seen.getOrDefault(bucket.getId(), 0);
+        }
+
+        /* Os buckets com eventos que este leitor ainda não leu. */
+        private List<ItemCappedBucket> changed(List<ItemCappedBucket> buckets) {
+            List<ItemCappedBucket> changed = new ArrayList<>();
+            for (ItemCappedBucket bucket : buckets) {
+                if (bucket.getCount() > seen(bucket)) {
+                    changed.add(bucket);
+                }
+            }
+            return changed;
+        }
+
+        private List<ItemCapped> read(ItemCappedBucket bucket, List<ItemCapped> events) {
+            seen.put(bucket.getId(), seen(bucket) + events.size());
+            return events;
+        }
+
+        /* Esquece os buckets que saíram da janela. */
+        private void slide(List<ItemCappedBucket> buckets) {
+            Date newest = from;
+            for (ItemCappedBucket bucket : buckets) {
+                if (bucket.getStart().after(newest)) {
+                    newest = bucket.getStart();
+                }
+            }
+
+            Date nextFrom = before(newest);
+            if (nextFrom.after(from)) {
+                Map<String, Integer> kept = new HashMap<>();
+                for (ItemCappedBucket bucket : buckets) {
+                    if (!bucket.getStart().before(nextFrom) && seen.containsKey(bucket.getId())) {
+                        kept.put(bucket.getId(), seen.get(bucket.getId()));
+                    }
+                }
+                seen = kept;
+                from = nextFrom;
+            }
+        }
+
+    }
+
+}
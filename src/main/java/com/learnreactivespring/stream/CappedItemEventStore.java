@@ -0,0 +1,44 @@
+package com.learnreactivespring.stream;
+
+import com.learnreactivespring.document.ItemCapped;
+import com.learnreactivespring.repository.ItemReactiveCappedRepository;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Um documento por evento na capped collection, lidos com um cursor tailable.
+ */
+@Component
+@ConditionalOnProperty(name = "item.stream.store", havingValue = "capped", matchIfMissing = true)
+public class CappedItemEventStore implements ItemEventStore {
+
+    @Autowired
+    private ItemReactiveCappedRepository itemReactiveCappedRepository;
+
+    @Override
+    public Mono<ItemCapped> append(ItemCapped itemCapped) {
+        return itemReactiveCappedRepository.insert(itemCapped);
+    }
+
+    /**
+     * O lote vai em um único insert na capped collection.
+     */
+    @Override
+    public Flux<ItemCapped> appendAll(List<ItemCapped> itemsCapped) {
+        return itemReactiveCappedRepository.insert(itemsCapped);
+    }
+
+    @Override
+    public Flux<ItemCapped> tail(ItemStreamFilter filter) {
+        /* Os filtros vão na própria query do cursor tailable. */
+        return filter.isEmpty()
+                ? itemReactiveCappedRepository.findItemsBy()
+                : itemReactiveCappedRepository.tail(filter.toQuery());
+    }
+
+}
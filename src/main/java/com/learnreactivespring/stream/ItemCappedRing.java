@@ -0,0 +1,83 @@
+package com.learnreactivespring.stream;
+
+import com.learnreactivespring.document.ItemCapped;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Os últimos itens recebidos pelo cursor compartilhado, para quem se inscreve depois receber esses itens
+ * sem consultar o Mongo.
+ * Só o cursor escreve (um item por vez, como todo Publisher), e os subscribers só leem, por isso não
+ * precisa de lock: cada posição é uma referência atômica, e o published só avança depois que o item foi
+ * gravado.
+ * Cada item recebe um número de sequência, usado pelo subscriber para emendar o que veio da memória com
+ * o que chega ao vivo, sem repetir nem pular itens.
+ */
+class ItemCappedRing {
+
+    private final AtomicReferenceArray<Entry> slots;
+
+    private final int capacity;
+
+    /* Sequência do último item gravado, ou -1 se ainda não tem nenhum. */
+    private final AtomicLong published = new AtomicLong(-1);
+
+    ItemCappedRing(int capacity) {
+        this.capacity = capacity;
+        this.slots = new AtomicReferenceArray<>(capacity);
+    }
+
+    /**
+     * Chamado somente pelo cursor compartilhado.
+     */
+    Entry append(ItemCapped itemCapped) {
+        long sequence = published.get() + 1;
+        Entry entry = new Entry(sequence, itemCapped);
+        slots.set((int) (sequence % capacity), entry);
+        published.set(sequence);
+        return entry;
+    }
+
+    /**
+     * Os itens da memória, do mais antigo para o mais novo, sempre em sequência, sem buracos. Se o cursor
+     * sobrescrever uma posição durante a leitura, os itens lidos até ali são descartados e o snapshot
+     * continua da sequência seguinte: fica só o final da lista, e os itens mais novos que o snapshot chegam
+     * pelo stream ao vivo.
+     */
+    List<Entry> snapshot() {
+        long last = published.get();
+        if (last < 0) {
+            return Collections.emptyList();
+        }
+        long first = Math.max(0, last - capacity + 1);
+        List<Entry> entries = new ArrayList<>((int) (last - first + 1));
+        for (long sequence = first; sequence <= last; sequence++) {
+            Entry entry = slots.get((int) (sequence % capacity));
+            if (entry != null && entry.sequence == sequence) {
+                entries.add(entry);
+            } else {
+                /* A posição já foi sobrescrita, e o que foi lido antes dela ficaria separado do resto. */
+                entries.clear();
+            }
+        }
+        return entries;
+    }
+
+    static final class Entry {
+
+        final long sequence;
+
+        final ItemCapped item;
+
+        Entry(long sequence, ItemCapped item) {
+            this.sequence = sequence;
+            this.item = item;
+        }
+
+    }
+
+}
@@ -0,0 +1,184 @@
+package com.learnreactivespring.stream;
+
+import com.learnreactivespring.document.ItemCapped;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.codec.ServerSentEvent;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.UnicastProcessor;
+import reactor.util.concurrent.Queues;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Ponto único de acesso ao stream de ItemCapped, usado pelo ItemStreamController e pelo ItemsHandler.
+ * No modo compartilhado, todos os subscribers do nó usam o mesmo cursor tailable, e quem chega depois
+ * recebe os últimos itens a partir da memória, sem consultar o Mongo.
+ */
+@Component
+@Slf4j
+public class ItemCappedStream {
+
+    @Autowired
+    private ItemEventStore itemEventStore;
+
+    @Autowired
+    private ItemStreamOverflow itemStreamOverflow;
+
+    /* Intervalo entre os comentários de heartbeat do SSE, que mantêm a conexão aberta em proxies. */
+    @Value("${item.stream.sse.heartbeat:15s}")
+    private Duration sseHeartbeat;
+
+    /* Quantos itens recentes ficam em memória para quem se inscreve no cursor compartilhado. */
+    @Value("${item.stream.replay-size:64}")
+    private int replaySize;
+
+    private Flux<ItemCappedRing.Entry> sharedStream;
+
+    /* Os últimos itens do cursor compartilhado aberto. Cada vez que o cursor abre, ele começa vazio, pois o
+     * cursor novo devolve de novo os itens da capped collection. */
+    private volatile ItemCappedRing ring;
+
+    @PostConstruct
+    public void init() {
+        ring = new ItemCappedRing(replaySize);
+        sharedStream = Flux.defer(() -> {
+            ItemCappedRing newRing = new ItemCappedRing(replaySize);
+            ring = newRing;
+            return itemEventStore.tail(new ItemStreamFilter()).map(newRing::append);
+        })
+                .doOnSubscribe(subscription -> log.info("Opening shared tailable cursor"))
+                .doFinally(signalType -> log.info("Shared tailable cursor closed : {}", signalType))
+                /* O publish transforma o Flux em um hot publisher, e o refCount abre o cursor quando
+                 * chega o primeiro subscriber e cancela quando o último sai. */
+                .publish()
+                .refCount();
+    }
+
+    /**
+     * @param shared   se true, usa o cursor compartilhado do nó. O subscriber recebe primeiro os últimos
+     *                 itens guardados em memória (item.stream.replay-size), e depois os itens ao vivo.
+     * @param filter   filtros do cliente. Se tiver o lastId, o stream começa logo depois dele. No modo
+     *                 compartilhado, se o lastId ainda estiver na memória, a retomada também vem da memória;
+     *                 se não, usa um cursor próprio.
+     * @param overflow o que fazer se o cliente for lento, ou null para o padrão: no cursor próprio, a
+     *                 demanda do cliente controla o cursor; no compartilhado, o cliente é desconectado
+     *                 quando o buffer dele estoura.
+     * @return
+     */
+    public Flux<ItemCapped> stream(boolean shared, ItemStreamFilter filter, OverflowPolicy overflow) {
+        if (!shared) {
+            return tail(filter, overflow);
+        }
+        return Flux.defer(() -> {
+            /* Se inscreve no cursor compartilhado antes de ler a memória. Os itens ao vivo ficam guardados
+             * até a memória ser enviada. */
+            UnicastProcessor<ItemCappedRing.Entry> live = UnicastProcessor.create(Queues.<ItemCappedRing.Entry>unbounded().get());
+            Disposable liveSubscription = sharedStream.subscribe(live::onNext, live::onError, live::onComplete);
+
+            List<ItemCappedRing.Entry> snapshot = ring.snapshot();
+            int from = 0;
+            if (filter.hasLastId()) {
+                from = indexAfter(snapshot, filter.getLastId());
+                if (from < 0) {
+                    /* O lastId já saiu da memória, então a retomada usa um cursor próprio. */
+                    liveSubscription.dispose();
+                    return tail(filter, overflow);
+                }
+            }
+            /* Dos itens ao vivo, só passam os que chegaram depois do último item da memória, então nenhum
+             * item é repetido ou pulado. */
+            long lastReplayed = snapshot.isEmpty() ? -1 : snapshot.get(snapshot.size() - 1).sequence;
+            Flux<ItemCapped> replayed = Flux.fromIterable(snapshot.subList(from, snapshot.size()))
+                    .concatWith(live.filter(entry -> entry.sequence > lastReplayed))
+                    .map(entry -> entry.item)
+                    .doFinally(signalType -> liveSubscription.dispose());
+
+            /* Cada subscriber tem seu próprio buffer limitado, para que um cliente lento não segure o
+             * publish (que só pede mais itens quando todos os subscribers têm demanda). O filtro vem antes
+             * do buffer, para os itens descartados não ocuparem espaço. */
+            return itemStreamOverflow.apply(replayed.filter(filter::test),
+                    overflow == null ? OverflowPolicy.DISCONNECT : overflow);
+        });
+    }
+
+    /**
+     * Uma leitura do ItemEventStore por subscriber (no capped, um cursor tailable com os filtros na query).
+     */
+    private Flux<ItemCapped> tail(ItemStreamFilter filter, OverflowPolicy overflow) {
+        Flux<ItemCapped> tail = itemEventStore.tail(filter);
+        return overflow == null ? tail : itemStreamOverflow.apply(tail, overflow);
+    }
+
+    /**
+     * @return a posição seguinte à do item com o id informado, ou -1 se ele não está na memória.
+     */
+    private static int indexAfter(List<ItemCappedRing.Entry> snapshot, String id) {
+        for (int i = snapshot.size() - 1; i >= 0; i--) {
+            if (snapshot.get(i).item.getId().equals(id)) {
+                return i + 1;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Stream cujo filtro pode mudar durante a conexão, usado pelo WebSocket e pelo request-channel do
+     * RSocket. A cada novo filtro, o stream anterior é cancelado e um novo é aberto a partir do último
+     * item enviado, então o cliente não recebe itens repetidos.
+     * No modo compartilhado, a retomada segue a mesma regra do lastId: vem da memória se o último item
+     * enviado ainda estiver lá, e senão usa um cursor próprio até o fim da conexão.
+     *
+     * @param filters o primeiro filtro e as mudanças enviadas pelo cliente.
+     */
+    public Flux<ItemCapped> stream(boolean shared, Flux<ItemStreamFilter> filters, OverflowPolicy overflow) {
+        return Flux.defer(() -> {
+            AtomicReference<String> lastSentId = new AtomicReference<>();
+            return filters
+                    .map(filter -> {
+                        if (filter.getLastId() == null) {
+                            filter.setLastId(lastSentId.get());
+                        }
+                        return filter;
+                    })
+                    .switchMap(filter -> stream(shared, filter, overflow))
+                    .doOnNext(itemCapped -> lastSentId.set(itemCapped.getId()));
+        });
+    }
+
+    /**
+     * O mesmo stream, como Server-Sent Events. Cada item vira um evento "item" com o id do ItemCapped,
+     * que o navegador reenvia no header Last-Event-ID ao reconectar. Entre os itens, são enviados
+     * comentários de heartbeat, até o stream de itens terminar (ex: o cliente lento desconectado pela
+     * OverflowPolicy.DISCONNECT), quando a resposta também termina.
+     */
+    public Flux<ServerSentEvent<ItemCapped>> sse(boolean shared, ItemStreamFilter filter, OverflowPolicy overflow) {
+        return Flux.defer(() -> {
+            /* Os eventos são lidos pelo merge e pelo then() que encerra os heartbeats. O refCount(2) só
+             * abre o stream quando os dois se inscrevem, e o fecha quando os dois cancelam. */
+            Flux<ServerSentEvent<ItemCapped>> events = stream(shared, filter, overflow)
+                    .map(itemCapped -> ServerSentEvent.builder(itemCapped)
+                            .id(itemCapped.getId())
+                            .event("item")
+                            .build())
+                    /* prefetch 1, para o publish não guardar itens além do buffer da OverflowPolicy. */
+                    .publish(1)
+                    .refCount(2);
+
+            Flux<ServerSentEvent<ItemCapped>> heartbeats = Flux.interval(sseHeartbeat)
+                    .map(tick -> ServerSentEvent.<ItemCapped>builder().comment("heartbeat").build())
+                    /* Se o cliente estiver lento, não adianta acumular heartbeats. */
+                    .onBackpressureDrop()
+                    .takeUntilOther(events.then());
+
+            return Flux.merge(events, heartbeats);
+        });
+    }
+
+}
@@ -0,0 +1,95 @@
+package com.learnreactivespring.stream;
+
+import com.learnreactivespring.document.ItemChange;
+import com.learnreactivespring.repository.ItemChangeRepository;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Stream das alterações dos itens, lido do outbox com um cursor tailable.
+ * Os ObjectIds são gerados por quem grava, então com vários nós (ou threads) a ordem dos ids não é a ordem
+ * em que as alterações entraram no outbox. Por isso a retomada não usa id > lastId: o cursor é reaberto na
+ * ordem natural da capped collection, que é a ordem de inserção, e pula as alterações até a do lastId.
+ */
+@Component
+public class ItemChangeStream {
+
+    @Autowired
+    private ItemChangeRepository itemChangeRepository;
+
+    /* Espera antes de reabrir o cursor, quando ele termina. */
+    @Value("${item.changes.reopen-delay:500ms}")
+    private Duration reopenDelay;
+
+    /**
+     * @param lastId id da última alteração recebida, para continuar depois dela. Se for null (ou inválido),
+     *               começa pelas alterações que ainda estão no outbox.
+     * @return
+     */
+    public Flux<ItemChange> changes(String lastId) {
+        return Flux.defer(() -> {
+            AtomicReference<String> lastSeen = new AtomicReference<>(
+                    lastId != null && ObjectId.isValid(lastId) ? lastId : null);
+
+            return Flux.defer(() -> resume(lastSeen.get()))
+                    .doOnNext(change -> lastSeen.set(change.getId()))
+                    /* Um cursor tailable em uma capped collection vazia (ou que não tem nada depois do lastId)
+                     * termina na hora. Então o cursor é reaberto a partir da última alteração recebida. */
+                    .repeatWhen(completed -> completed.delayElements(reopenDelay));
+        });
+    }
+
+    /**
+     * Se o lastId já saiu do outbox, não dá mais para saber a posição dele, e a retomada usa a ordem dos
+     * ids, que pode pular alterações: o consumidor deveria recarregar os itens nesse caso.
+     */
+    private Flux<ItemChange> resume(String lastId) {
+        if (lastId == null) {
+            return itemChangeRepository.findChangesBy();
+        }
+        Flux<ItemChange> byId = itemChangeRepository.findChangesByIdGreaterThan(new ObjectId(lastId));
+        return itemChangeRepository.existsById(lastId)
+                .flatMapMany(exists -> exists
+                        ? itemChangeRepository.count().flatMapMany(size -> after(lastId, size))
+                        .onErrorResume(AnchorNotFoundException.class, e -> byId)
+                        : byId);
+    }
+
+    /**
+     * As alterações depois do lastId, na ordem de inserção. A capped collection só perde documentos do
+     * começo, então se o lastId ainda existia quando o outbox tinha size alterações, ele está entre as size
+     * primeiras lidas pelo cursor. Se não estiver, ele saiu do outbox entre o existsById e a leitura, e o
+     * cursor termina com AnchorNotFoundException, antes de emitir qualquer alteração.
+     */
+    private Flux<ItemChange> after(String lastId, long size) {
+        return Flux.defer(() -> {
+            long[] scanned = {0};
+            boolean[] found = {false};
+            return itemChangeRepository.findChangesBy()
+                    .handle((change, sink) -> {
+                        if (found[0]) {
+                            sink.next(change);
+                        } else if (change.getId().equals(lastId)) {
+                            found[0] = true;
+                        } else if (++scanned[0] >= size) {
+                            sink.error(new AnchorNotFoundException());
+                        }
+                    });
+        });
+    }
+
+    private static final class AnchorNotFoundException extends IllegalStateException {
+
+        private AnchorNotFoundException() {
+            super("Last change id rolled out of the outbox");
+        }
+
+    }
+
+}
@@ -0,0 +1,35 @@
+package com.learnreactivespring.stream;
+
+import com.learnreactivespring.document.ItemCapped;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.List;
+
+/**
+ * Onde os eventos de ItemCapped são gravados e de onde o stream de itens lê.
+ * A implementação é escolhida pelo item.stream.store: capped (padrão), com um documento por evento na
+ * capped collection, bucketed, com vários eventos por documento, ou log, em arquivos locais mapeados em memória.
+ */
+public interface ItemEventStore {
+
+    /**
+     * Grava um evento. Se ele não tiver id, recebe um ObjectId.
+     */
+    Mono<ItemCapped> append(ItemCapped itemCapped);
+
+    /**
+     * Grava vários eventos, na ordem. Por padrão, um append por vez; as implementações que conseguem
+     * gravar o lote de uma vez sobrescrevem.
+     */
+    default Flux<ItemCapped> appendAll(List<ItemCapped> itemsCapped) {
+        return Flux.fromIterable(itemsCapped).concatMap(this::append);
+    }
+
+    /**
+     * Stream infinito dos eventos que passam no filtro. Se o filtro tiver o lastId, começa logo depois
+     * dele; se não, começa pelos eventos mais recentes que ainda estão guardados.
+     */
+    Flux<ItemCapped> tail(ItemStreamFilter filter);
+
+}
@@ -0,0 +1,102 @@
+package com.learnreactivespring.stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.learnreactivespring.document.ItemCapped;
+import com.learnreactivespring.util.Batches;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferFactory;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.MediaType;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.http.codec.json.Jackson2JsonEncoder;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import javax.annotation.PostConstruct;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Escreve o stream de ItemCapped como application/stream+json em lotes.
+ * Normalmente, cada item do stream é codificado e enviado com um flush próprio, ou seja, uma escrita no
+ * socket por item. Aqui, os itens são agrupados em até maxSize itens, ou o que chegar dentro de maxDelay,
+ * e cada lote vira um único DataBuffer com um único flush. O maxDelay é o atraso máximo que um item pode
+ * ficar esperando o lote fechar.
+ */
+@Component
+public class ItemStreamBatchWriter {
+
+    private static final byte[] NEW_LINE = {'\n'};
+
+    private static final ResolvableType ITEM_CAPPED_TYPE = ResolvableType.forClass(ItemCapped.class);
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    /* Limite do tamanho do lote que o cliente pode pedir, para limitar a memória usada por lote. */
+    @Value("${item.stream.batch.max-size:1024}")
+    private int maxBatchSize;
+
+    /* Limite do atraso que o cliente pode pedir. */
+    @Value("${item.stream.batch.max-delay:1s}")
+    private Duration maxBatchDelay;
+
+    @Value("${item.stream.batch.default-delay:5ms}")
+    private Duration defaultDelay;
+
+    private Jackson2JsonEncoder encoder;
+
+    @PostConstruct
+    public void init() {
+        encoder = new Jackson2JsonEncoder(objectMapper);
+    }
+
+    /**
+     * @param outputMessage resposta onde os lotes serão escritos.
+     * @param items         stream de itens.
+     * @param batchSize     número máximo de itens por lote, limitado ao item.stream.batch.max-size.
+     * @param maxDelay      tempo máximo, em ms, que o lote fica aberto esperando mais itens, limitado ao
+     *                      item.stream.batch.max-delay. Se null, usa o item.stream.batch.default-delay.
+     * @return
+     */
+    public Mono<Void> write(ReactiveHttpOutputMessage outputMessage, Flux<ItemCapped> items,
+                            int batchSize, Long maxDelay) {
+        int size = Math.max(1, Math.min(batchSize, maxBatchSize));
+        Duration delay = maxDelay == null
+                ? defaultDelay
+                : Duration.ofMillis(Math.max(1, Math.min(maxDelay, maxBatchDelay.toMillis())));
+
+        DataBufferFactory bufferFactory = outputMessage.bufferFactory();
+        outputMessage.getHeaders().setContentType(MediaType.APPLICATION_STREAM_JSON);
+
+        /* Cada Publisher interno é escrito e depois recebe um flush. Como cada um tem um único buffer,
+         * é um flush por lote. O Batches.bufferTimeout só fecha lotes conforme a demanda da resposta, então
+         * um cliente lento chega como backpressure no stream de itens, onde a OverflowPolicy já foi
+         * aplicada, em vez de terminar a resposta com erro. */
+        Flux<Flux<DataBuffer>> batches = Batches.bufferTimeout(items, size, delay)
+                .map(batch -> Flux.just(encode(batch, bufferFactory)));
+
+        return outputMessage.writeAndFlushWith(batches);
+    }
+
+    private DataBuffer encode(List<ItemCapped> batch, DataBufferFactory bufferFactory) {
+        List<DataBuffer> buffers = new ArrayList<>(batch.size() * 2);
+        try {
+            for (ItemCapped itemCapped : batch) {
+                buffers.add(encoder.encodeValue(itemCapped, bufferFactory, ITEM_CAPPED_TYPE,
+                        MediaType.APPLICATION_STREAM_JSON, null));
+                buffers.add(bufferFactory.wrap(NEW_LINE));
+            }
+        } catch (RuntimeException e) {
+            buffers.forEach(DataBufferUtils::release);
+            throw e;
+        }
+        return bufferFactory.join(buffers);
+    }
+
+}
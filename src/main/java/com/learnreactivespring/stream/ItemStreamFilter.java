@@ -0,0 +1,123 @@
+package com.learnreactivespring.stream;
+
+import com.learnreactivespring.document.ItemCapped;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.bson.types.ObjectId;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.server.ServerWebInputException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+/**
+ * Filtros do stream de itens, informados nos query params dos endpoints de stream:
+ * ?minPrice=100&maxPrice=200&descriptionPrefix=Random&lastId=...
+ * No cursor próprio de cada cliente, os filtros vão para a query do cursor tailable, então os itens
+ * filtrados nem saem do Mongo. No cursor compartilhado, o filtro é aplicado antes do buffer de cada
+ * cliente, então os itens filtrados não são serializados nem enviados.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class ItemStreamFilter {
+
+    /* Id do último item recebido pelo cliente, para retomar o stream depois dele. */
+    private String lastId;
+
+    private Double minPrice;
+
+    private Double maxPrice;
+
+    private String descriptionPrefix;
+
+    /**
+     * Monta o filtro a partir dos query params. O lastId pode vir no ?lastId= ou no header Last-Event-ID.
+     * Um minPrice ou maxPrice que não é número gera um ServerWebInputException (400).
+     *
+     * @param queryParams
+     * @param lastEventId
+     * @return
+     */
+    public static ItemStreamFilter of(MultiValueMap<String, String> queryParams, String lastEventId) {
+        String lastId = queryParams.getFirst("lastId");
+        return new ItemStreamFilter(
+                lastId != null ? lastId : lastEventId,
+                toDouble("minPrice", queryParams.getFirst("minPrice")),
+                toDouble("maxPrice", queryParams.getFirst("maxPrice")),
+                queryParams.getFirst("descriptionPrefix"));
+    }
+
+    /**
+     * Só retoma a partir do lastId se ele for um ObjectId. Um id inválido é ignorado, e o cliente recebe
+     * o stream desde o começo.
+     */
+    public boolean hasLastId() {
+        return lastId != null && ObjectId.isValid(lastId);
+    }
+
+    public boolean isEmpty() {
+        return !hasLastId() && minPrice == null && maxPrice == null && descriptionPrefix == null;
+    }
+
+    /**
+     * Query usada no cursor tailable.
+     */
+    public Query toQuery() {
+        List<Criteria> criteria = new ArrayList<>();
+        if (hasLastId()) {
+            criteria.add(where("id").gt(new ObjectId(lastId)));
+        }
+        if (minPrice != null) {
+            criteria.add(where("price").gte(minPrice));
+        }
+        if (maxPrice != null) {
+            criteria.add(where("price").lte(maxPrice));
+        }
+        if (descriptionPrefix != null) {
+            /* O quote faz o prefixo ser comparado literalmente. */
+            criteria.add(where("description").regex("^" + Pattern.quote(descriptionPrefix)));
+        }
+        if (criteria.isEmpty()) {
+            return new Query();
+        }
+        return new Query(new Criteria().andOperator(criteria.toArray(new Criteria[0])));
+    }
+
+    /**
+     * Mesmo filtro da toQuery(), mas aplicado em memória, no cursor compartilhado. O lastId não é
+     * considerado aqui, pois a retomada sempre usa um cursor próprio.
+     */
+    public boolean test(ItemCapped itemCapped) {
+        Double price = itemCapped.getPrice();
+        if (minPrice != null && (price == null || price < minPrice)) {
+            return false;
+        }
+        if (maxPrice != null && (price == null || price > maxPrice)) {
+            return false;
+        }
+        if (descriptionPrefix != null) {
+            String description = itemCapped.getDescription();
+            return description != null && description.startsWith(descriptionPrefix);
+        }
+        return true;
+    }
+
+    private static Double toDouble(String name, String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Double.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw new ServerWebInputException("Invalid " + name + " : " + value);
+        }
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.learnreactivespring.stream;
+
+import com.learnreactivespring.document.ItemCapped;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import reactor.core.Exceptions;
+import reactor.core.publisher.BufferOverflowStrategy;
+import reactor.core.publisher.Flux;
+
+import javax.annotation.PostConstruct;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Aplica a OverflowPolicy no stream de cada cliente. O buffer de cada cliente é limitado, então um
+ * cliente parado não consegue fazer a memória do nó crescer.
+ * Os itens descartados são contados no item.stream.dropped (com a tag policy), e os clientes
+ * desconectados por serem lentos no item.stream.slow.disconnects.
+ */
+@Component
+@Slf4j
+public class ItemStreamOverflow {
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    /* Quantos itens cada subscriber pode acumular. */
+    @Value("${item.stream.subscriber-buffer-size:256}")
+    private int subscriberBufferSize;
+
+    private final Map<OverflowPolicy, Counter> dropped = new EnumMap<>(OverflowPolicy.class);
+
+    private Counter slowDisconnects;
+
+    @PostConstruct
+    public void init() {
+        for (OverflowPolicy policy : OverflowPolicy.values()) {
+            dropped.put(policy, Counter.builder("item.stream.dropped")
+                    .description("Itens descartados porque o cliente do stream estava lento")
+                    .tag("policy", policy.name().toLowerCase())
+                    .register(meterRegistry));
+        }
+        slowDisconnects = Counter.builder("item.stream.slow.disconnects")
+                .description("Clientes do stream desconectados por estourarem o buffer")
+                .register(meterRegistry);
+    }
+
+    public Flux<ItemCapped> apply(Flux<ItemCapped> stream, OverflowPolicy policy) {
+        Counter droppedCounter = dropped.get(policy);
+        switch (policy) {
+            case CONFLATE_BY_ID:
+                /* Não tem buffer: guarda no máximo subscriberBufferSize chaves pendentes. */
+                return LatestByKey.conflate(stream, ItemStreamOverflow::itemKey, item -> droppedCounter.increment(),
+                        subscriberBufferSize);
+            case CONFLATE_BY_DESCRIPTION:
+                return LatestByKey.conflate(stream, ItemCapped::getDescription, item -> droppedCounter.increment(),
+                        subscriberBufferSize);
+            case DROP_OLDEST:
+                return stream.onBackpressureBuffer(subscriberBufferSize, item -> droppedCounter.increment(),
+                        BufferOverflowStrategy.DROP_OLDEST);
+            case LATEST:
+                /* Um buffer de 1 que descarta o mais antigo equivale a guardar só o último, mas permite
+                 * contar os descartados. */
+                return stream.onBackpressureBuffer(1, item -> droppedCounter.increment(),
+                        BufferOverflowStrategy.DROP_OLDEST);
+            case DISCONNECT:
+                return stream.onBackpressureBuffer(subscriberBufferSize, item -> droppedCounter.increment(),
+                        BufferOverflowStrategy.ERROR)
+                        /* Encerra a resposta normalmente, em vez de propagar o erro para o cliente. */
+                        .onErrorResume(Exceptions::isOverflow, e -> {
+                            slowDisconnects.increment();
+                            log.info("Slow stream subscriber disconnected after {} buffered items", subscriberBufferSize);
+                            return Flux.empty();
+                        });
+            case BUFFER:
+            default:
+                return stream.onBackpressureBuffer(subscriberBufferSize, item -> droppedCounter.increment(),
+                        BufferOverflowStrategy.DROP_LATEST);
+        }
+    }
+
+    /**
+     * O id de cada evento é novo, então a chave é o item a que ele se refere. Um evento sem itemId não é
+     * agrupado com nenhum outro.
+     */
+    private static String itemKey(ItemCapped itemCapped) {
+        return itemCapped.getItemId() != null ? itemCapped.getItemId() : itemCapped.getId();
+    }
+
+}
@@ -0,0 +1,123 @@
+package com.learnreactivespring.stream;
+
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Conflation por chave: enquanto o subscriber não tem demanda, guarda só o valor mais recente de cada
+ * chave. Quando ele volta a pedir itens, recebe um valor por chave que mudou, na ordem da última mudança.
+ * A memória usada fica limitada ao número de chaves, e não à quantidade de itens que chegam. Como as
+ * chaves também podem crescer sem limite, no máximo maxKeys ficam pendentes: quando chega uma chave nova
+ * com o mapa cheio, a chave pendente há mais tempo é descartada.
+ */
+final class LatestByKey<T, K> {
+
+    private final FluxSink<T> sink;
+
+    private final Function<T, K> key;
+
+    private final Consumer<T> onReplaced;
+
+    private final int maxKeys;
+
+    /* Valores pendentes por chave, acessado pela thread do upstream e pela do subscriber. */
+    private final Map<K, T> pending = new LinkedHashMap<>();
+
+    private final AtomicInteger wip = new AtomicInteger();
+
+    private volatile boolean done;
+
+    private LatestByKey(FluxSink<T> sink, Function<T, K> key, Consumer<T> onReplaced, int maxKeys) {
+        this.sink = sink;
+        this.key = key;
+        this.onReplaced = onReplaced;
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * @param source     pedido sem limite, pois os valores repetidos são substituídos.
+     * @param key        chave de cada valor, ex: ItemCapped::getDescription.
+     * @param onReplaced chamado com o valor antigo, quando ele é substituído ou descartado sem ter sido enviado.
+     * @param maxKeys    quantas chaves podem ficar pendentes.
+     */
+    static <T, K> Flux<T> conflate(Flux<T> source, Function<T, K> key, Consumer<T> onReplaced, int maxKeys) {
+        return Flux.create(sink -> {
+            LatestByKey<T, K> latestByKey = new LatestByKey<>(sink, key, onReplaced, maxKeys);
+            Disposable upstream = source.subscribe(latestByKey::offer, sink::error, latestByKey::complete);
+            sink.onRequest(n -> latestByKey.drain());
+            sink.onDispose(upstream);
+        });
+    }
+
+    private void offer(T value) {
+        K k = key.apply(value);
+        T replaced;
+        synchronized (pending) {
+            /* Remove antes de colocar, para a chave ir para o fim da fila. */
+            replaced = pending.remove(k);
+            if (replaced == null && pending.size() >= maxKeys) {
+                Iterator<T> oldest = pending.values().iterator();
+                replaced = oldest.next();
+                oldest.remove();
+            }
+            pending.put(k, value);
+        }
+        if (replaced != null) {
+            onReplaced.accept(replaced);
+        }
+        drain();
+    }
+
+    private void complete() {
+        done = true;
+        drain();
+    }
+
+    /**
+     * Envia os pendentes enquanto houver demanda. O wip garante que só uma thread envia por vez, e que um
+     * offer ou request que chega durante o envio faz mais uma volta no loop.
+     */
+    private void drain() {
+        if (wip.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        for (; ; ) {
+            while (sink.requestedFromDownstream() > 0) {
+                T next;
+                synchronized (pending) {
+                    Iterator<T> values = pending.values().iterator();
+                    if (!values.hasNext()) {
+                        break;
+                    }
+                    next = values.next();
+                    values.remove();
+                }
+                sink.next(next);
+            }
+            if (done) {
+                boolean empty;
+                synchronized (pending) {
+                    empty = pending.isEmpty();
+                }
+                if (empty) {
+                    sink.complete();
+                    return;
+                }
+            }
+            missed = wip.addAndGet(-missed);
+            if (missed == 0) {
+                return;
+            }
+        }
+    }
+
+}
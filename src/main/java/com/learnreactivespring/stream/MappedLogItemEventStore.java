@@ -0,0 +1,359 @@
+package com.learnreactivespring.stream;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.ByteBufferBackedInputStream;
+import com.learnreactivespring.document.ItemCapped;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+import org.springframework.util.unit.DataSize;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.DirectProcessor;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Guarda os eventos em um log local, só de escrita no fim, dividido em segmentos de segment-size bytes,
+ * cada um mapeado em memória (memory-mapped file). Usado quando item.stream.store = log, para quem roda
+ * um único nó: não tem ida ao Mongo por evento, e a leitura é feita direto da memória mapeada.
+ * Cada registro tem o tamanho do json (int), o ObjectId do evento (12 bytes) e o json. Um tamanho -1
+ * marca o fim do segmento, e 0 quer dizer que ainda não foi escrito nada ali.
+ * As leituras não fazem polling: cada append avisa os leitores, que leem até o fim do log conforme a
+ * demanda do subscriber. A leitura roda nas threads do item-log-reader, e não na thread do append, que só
+ * agenda o leitor.
+ * Só os últimos max-segments segmentos são mantidos, fazendo o papel do limite da capped collection.
+ */
+@Component
+@ConditionalOnProperty(name = "item.stream.store", havingValue = "log")
+@Slf4j
+public class MappedLogItemEventStore implements ItemEventStore {
+
+    private static final int ID_SIZE = 12;
+
+    private static final int HEADER_SIZE = Integer.BYTES + ID_SIZE;
+
+    private static final int END_OF_SEGMENT = -1;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${item.stream.log.directory:${java.io.tmpdir}/item-stream-log}")
+    private String directory;
+
+    @Value("${item.stream.log.segment-size:16MB}")
+    private DataSize segmentSize;
+
+    @Value("${item.stream.log.max-segments:8}")
+    private int maxSegments;
+
+    private final List<Segment> segments = new CopyOnWriteArrayList<>();
+
+    /* Posição global logo depois do último registro completo. Os leitores só leem até aqui. */
+    private volatile long committed;
+
+    private final DirectProcessor<Long> appended = DirectProcessor.create();
+
+    private final FluxSink<Long> appendedSink = appended.sink();
+
+    private Scheduler readers;
+
+    @PostConstruct
+    public void open() throws IOException {
+        readers = Schedulers.newParallel("item-log-reader");
+
+        Path path = Paths.get(directory);
+        Files.createDirectories(path);
+
+        List<Path> files;
+        try (Stream<Path> list = Files.list(path)) {
+            files = list.filter(file -> file.getFileName().toString().endsWith(".log"))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        for (Path file : files) {
+            long base = Long.parseLong(file.getFileName().toString().replace(".log", ""));
+            segments.add(recover(map(file, base)));
+        }
+        if (segments.isEmpty()) {
+            segments.add(map(segmentPath(0), 0));
+        }
+        Segment last = last();
+        committed = last.base + last.writeOffset;
+        log.info("Item event log opened at {} with {} segments", path, segments.size());
+    }
+
+    @PreDestroy
+    public void close() {
+        appendedSink.complete();
+        readers.dispose();
+        for (Segment segment : segments) {
+            segment.close();
+        }
+    }
+
+    @Override
+    public Mono<ItemCapped> append(ItemCapped itemCapped) {
+        return Mono.fromCallable(() -> {
+            long position;
+            synchronized (this) {
+                /* O id é gerado dentro do lock, então os ids crescem na ordem do log. */
+                if (itemCapped.getId() == null) {
+                    itemCapped.setId(new ObjectId().toHexString());
+                }
+                byte[] payload = objectMapper.writeValueAsBytes(itemCapped);
+                int recordSize = HEADER_SIZE + payload.length;
+                if (recordSize + Integer.BYTES > segmentSize.toBytes()) {
+                    throw new IllegalArgumentException("Event of " + payload.length + " bytes does not fit in a log segment");
+                }
+
+                Segment segment = last();
+                if (segment.writeOffset + recordSize + Integer.BYTES > segment.size) {
+                    segment = roll(segment);
+                }
+                int offset = segment.writeOffset;
+                ByteBuffer buffer = segment.buffer.duplicate();
+                buffer.position(offset + Integer.BYTES);
+                buffer.put(new ObjectId(itemCapped.getId()).toByteArray());
+                buffer.put(payload);
+                /* O tamanho é escrito por último, e o committed só avança depois do registro completo. */
+                segment.buffer.putInt(offset, payload.length);
+                segment.writeOffset = offset + recordSize;
+                position = segment.base + segment.writeOffset;
+                committed = position;
+            }
+            appendedSink.next(position);
+            return itemCapped;
+        });
+    }
+
+    @Override
+    public Flux<ItemCapped> tail(ItemStreamFilter filter) {
+        return Flux.create(sink -> {
+            Scheduler.Worker worker = readers.createWorker();
+            Reader reader = new Reader(sink, filter, worker);
+            /* Acorda o leitor a cada append. */
+            Disposable wakeUp = appended.subscribe(position -> reader.drain());
+            sink.onRequest(n -> reader.drain());
+            sink.onDispose(Disposables.composite(wakeUp, worker));
+        });
+    }
+
+    /**
+     * Marca o fim do segmento atual e abre o próximo. Os segmentos mais antigos que max-segments são
+     * removidos.
+     */
+    private Segment roll(Segment current) throws IOException {
+        current.buffer.putInt(current.writeOffset, END_OF_SEGMENT);
+        current.buffer.force();
+
+        long base = current.base + current.size;
+        Segment next = map(segmentPath(base), base);
+        segments.add(next);
+
+        while (segments.size() > maxSegments) {
+            Segment oldest = segments.remove(0);
+            oldest.close();
+            Files.deleteIfExists(segmentPath(oldest.base));
+        }
+        return next;
+    }
+
+    private Segment map(Path file, long base) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        int size = (int) Math.max(channel.size(), segmentSize.toBytes());
+        return new Segment(base, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, size), size);
+    }
+
+    /**
+     * Percorre os registros de um segmento que já existia, para achar onde termina.
+     */
+    private Segment recover(Segment segment) {
+        int offset = 0;
+        while (offset + HEADER_SIZE <= segment.size) {
+            int length = segment.buffer.getInt(offset);
+            if (length <= 0) {
+                break;
+            }
+            offset += HEADER_SIZE + length;
+        }
+        segment.writeOffset = offset;
+        return segment;
+    }
+
+    private Path segmentPath(long base) {
+        return Paths.get(directory, String.format("%020d.log", base));
+    }
+
+    private Segment last() {
+        return segments.get(segments.size() - 1);
+    }
+
+    /**
+     * O segmento que contém a posição, ou o mais antigo se a posição já foi removida.
+     */
+    private Segment segmentFor(long position) {
+        Segment found = segments.get(0);
+        for (Segment segment : segments) {
+            if (segment.base <= position) {
+                found = segment;
+            }
+        }
+        return found;
+    }
+
+    private static final class Segment {
+
+        private final long base;
+
+        private final FileChannel channel;
+
+        private final MappedByteBuffer buffer;
+
+        private final int size;
+
+        /* Só usado pelo append, dentro do lock. */
+        private int writeOffset;
+
+        private Segment(long base, FileChannel channel, MappedByteBuffer buffer, int size) {
+            this.base = base;
+            this.channel = channel;
+            this.buffer = buffer;
+            this.size = size;
+        }
+
+        private void close() {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                log.warn("Failed to close log segment {} : {}", base, e.toString());
+            }
+        }
+
+    }
+
+    /**
+     * Um leitor por subscriber. Lê os registros a partir da sua posição enquanto o subscriber tiver
+     * demanda, e para no committed até o próximo append.
+     */
+    private final class Reader {
+
+        private final FluxSink<ItemCapped> sink;
+
+        private final ItemStreamFilter filter;
+
+        /* Os eventos até este id são pulados, lendo só o cabeçalho. */
+        private final ObjectId after;
+
+        /* Onde a leitura roda. O worker executa uma tarefa por vez, na ordem. */
+        private final Scheduler.Worker worker;
+
+        private final AtomicInteger wip = new AtomicInteger();
+
+        private long position;
+
+        private Reader(FluxSink<ItemCapped> sink, ItemStreamFilter filter, Scheduler.Worker worker) {
+            this.sink = sink;
+            this.filter = filter;
+            this.worker = worker;
+            this.after = filter.hasLastId() ? new ObjectId(filter.getLastId()) : null;
+            /* Sem o lastId, começa pelo segmento atual, e não pelo log inteiro, que pode ter até max-segments
+             * segmentos. Com o lastId, o evento pode estar em qualquer segmento que ainda existe. */
+            this.position = after != null ? segments.get(0).base : last().base;
+        }
+
+        /**
+         * Chamado pelo append e pelo request. Só agenda a leitura; um append ou request que chega durante
+         * a leitura faz mais uma volta no loop.
+         */
+        private void drain() {
+            if (wip.getAndIncrement() == 0) {
+                try {
+                    worker.schedule(this::drainLoop);
+                } catch (RejectedExecutionException e) {
+                    /* O subscriber cancelou, ou o store está fechando. */
+                }
+            }
+        }
+
+        private void drainLoop() {
+            int missed = 1;
+            for (; ; ) {
+                try {
+                    while (sink.requestedFromDownstream() > 0 && !sink.isCancelled() && position < committed) {
+                        ItemCapped next = readNext();
+                        if (next != null && filter.test(next)) {
+                            sink.next(next);
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    sink.error(e);
+                    return;
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @return o evento na posição atual, ou null se foi pulado ou era o fim do segmento.
+         */
+        private ItemCapped readNext() throws IOException {
+            Segment segment = segmentFor(position);
+            if (position < segment.base) {
+                /* A posição estava em um segmento que já foi removido. */
+                position = segment.base;
+            }
+            int offset = (int) (position - segment.base);
+            int length = segment.buffer.getInt(offset);
+            if (length == END_OF_SEGMENT) {
+                position = segment.base + segment.size;
+                return null;
+            }
+            position = segment.base + offset + HEADER_SIZE + length;
+
+            if (after != null) {
+                byte[] id = new byte[ID_SIZE];
+                ByteBuffer header = segment.buffer.duplicate();
+                header.position(offset + Integer.BYTES);
+                header.get(id);
+                if (new ObjectId(id).compareTo(after) <= 0) {
+                    return null;
+                }
+            }
+
+            /* Lê o json direto da memória mapeada, sem copiar para um array. */
+            ByteBuffer payload = segment.buffer.duplicate();
+            payload.position(offset + HEADER_SIZE);
+            payload.limit(offset + HEADER_SIZE + length);
+            return objectMapper.readValue(new ByteBufferBackedInputStream(payload), ItemCapped.class);
+        }
+
+    }
+
+}
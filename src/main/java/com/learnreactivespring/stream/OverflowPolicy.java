@@ -0,0 +1,42 @@
+package com.learnreactivespring.stream;
+
+import org.springframework.web.server.ServerWebInputException;
+
+/**
+ * O que fazer quando um cliente lê o stream mais devagar do que os itens chegam, informado no
+ * ?overflow= dos endpoints de stream (buffer, drop-oldest, latest, disconnect,
+ * conflate-by-id ou conflate-by-description).
+ */
+public enum OverflowPolicy {
+
+    /* Guarda até o tamanho do buffer, e descarta os itens novos enquanto ele estiver cheio. */
+    BUFFER,
+    /* Guarda até o tamanho do buffer, e descarta os itens mais antigos para abrir espaço para os novos. */
+    DROP_OLDEST,
+    /* Guarda somente o último item. */
+    LATEST,
+    /* Guarda até o tamanho do buffer, e encerra o stream do cliente quando ele estoura. */
+    DISCONNECT,
+    /* Guarda só o evento mais recente de cada itemId, e envia os que mudaram quando o cliente voltar a ler. */
+    CONFLATE_BY_ID,
+    /* Guarda só o evento mais recente de cada description (o payload aleatório do ItemEventProducer entra
+     * na description, e com ele ligado nada é agrupado). */
+    CONFLATE_BY_DESCRIPTION;
+
+    /**
+     * @param value ex: "drop-oldest". Pode ser null.
+     * @return a política, ou null se não foi informada.
+     * @throws ServerWebInputException (400) se o valor não for uma das políticas.
+     */
+    public static OverflowPolicy from(String value) {
+        if (value == null) {
+            return null;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase().replace('-', '_'));
+        } catch (IllegalArgumentException e) {
+            throw new ServerWebInputException("Invalid overflow policy : " + value);
+        }
+    }
+
+}
@@ -0,0 +1,185 @@
+package com.learnreactivespring.util;
+
+import org.reactivestreams.Subscription;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.BaseSubscriber;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.FluxSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Agrupa um Flux em lotes de até maxSize itens, ou o que chegar dentro de maxTime, respeitando a demanda.
+ * O bufferTimeout do Reactor 3.3 emite o lote quando o tempo acaba mesmo que ninguém tenha pedido, e
+ * termina com "Could not emit buffer due to lack of requests" se o consumidor estiver lento. Aqui, o lote
+ * que fechou por tempo espera a demanda do consumidor, e enquanto isso continua recebendo itens até
+ * maxSize. Só são pedidos ao upstream os itens que cabem no lote, então um consumidor lento faz o
+ * backpressure chegar no upstream (e na OverflowPolicy, no caso do stream de itens).
+ */
+public final class Batches {
+
+    private Batches() {
+    }
+
+    public static <T> Flux<List<T>> bufferTimeout(Flux<T> source, int maxSize, Duration maxTime) {
+        return bufferTimeout(source, maxSize, maxTime, Schedulers.parallel());
+    }
+
+    /**
+     * @param timer usado para fechar o lote por tempo. Nos testes, pode ser um VirtualTimeScheduler.
+     */
+    public static <T> Flux<List<T>> bufferTimeout(Flux<T> source, int maxSize, Duration maxTime, Scheduler timer) {
+        return Flux.create(sink -> {
+            BatchSubscriber<T> subscriber = new BatchSubscriber<>(sink, maxSize, maxTime, timer);
+            sink.onRequest(n -> subscriber.drain());
+            sink.onDispose(subscriber::cancelAll);
+            source.subscribe(subscriber);
+        });
+    }
+
+    private static final class BatchSubscriber<T> extends BaseSubscriber<T> {
+
+        private final FluxSink<List<T>> sink;
+
+        private final int maxSize;
+
+        private final Duration maxTime;
+
+        private final Scheduler timer;
+
+        private final Queue<T> pending = new ConcurrentLinkedQueue<>();
+
+        /* Itens em pending. O ConcurrentLinkedQueue.size() percorre a fila inteira. */
+        private final AtomicInteger count = new AtomicInteger();
+
+        private final AtomicInteger wip = new AtomicInteger();
+
+        private final Disposable.Swap timeout = Disposables.swap();
+
+        private volatile boolean timedOut;
+
+        /* Muda a cada lote emitido, para o timeout de um lote anterior não fechar o próximo. */
+        private volatile long generation;
+
+        private volatile boolean done;
+
+        private volatile Throwable error;
+
+        private BatchSubscriber(FluxSink<List<T>> sink, int maxSize, Duration maxTime, Scheduler timer) {
+            this.sink = sink;
+            this.maxSize = maxSize;
+            this.maxTime = maxTime;
+            this.timer = timer;
+        }
+
+        @Override
+        protected void hookOnSubscribe(Subscription subscription) {
+            request(maxSize);
+        }
+
+        @Override
+        protected void hookOnNext(T value) {
+            pending.offer(value);
+            /* O primeiro item de um lote começa a contar o tempo. */
+            if (count.getAndIncrement() == 0) {
+                scheduleTimeout();
+            }
+            drain();
+        }
+
+        @Override
+        protected void hookOnComplete() {
+            done = true;
+            drain();
+        }
+
+        @Override
+        protected void hookOnError(Throwable throwable) {
+            error = throwable;
+            done = true;
+            drain();
+        }
+
+        private void scheduleTimeout() {
+            long batchGeneration = generation;
+            timeout.update(timer.schedule(() -> {
+                if (batchGeneration == generation) {
+                    timedOut = true;
+                    drain();
+                }
+            }, maxTime.toNanos(), TimeUnit.NANOSECONDS));
+        }
+
+        private void cancelAll() {
+            cancel();
+            timeout.dispose();
+            pending.clear();
+        }
+
+        private void drain() {
+            if (wip.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            for (; ; ) {
+                for (; ; ) {
+                    if (sink.isCancelled()) {
+                        return;
+                    }
+                    boolean terminated = done;
+                    if (terminated && error != null) {
+                        /* Como o bufferTimeout, um erro descarta o lote que estava aberto. */
+                        timeout.dispose();
+                        pending.clear();
+                        sink.error(error);
+                        return;
+                    }
+                    int available = count.get();
+                    if (available == 0) {
+                        if (terminated) {
+                            timeout.dispose();
+                            sink.complete();
+                            return;
+                        }
+                        break;
+                    }
+                    if (sink.requestedFromDownstream() == 0
+                            || (available < maxSize && !timedOut && !terminated)) {
+                        break;
+                    }
+
+                    int size = Math.min(available, maxSize);
+                    List<T> batch = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        batch.add(pending.poll());
+                    }
+                    timedOut = false;
+                    generation++;
+                    /* Os itens que sobraram começam a contar o tempo de novo. */
+                    if (count.addAndGet(-size) > 0) {
+                        scheduleTimeout();
+                    }
+                    sink.next(batch);
+                    if (!terminated) {
+                        request(size);
+                    }
+                }
+                missed = wip.addAndGet(-missed);
+                if (missed == 0) {
+                    return;
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,31 @@
+package com.learnreactivespring.util;
+
+import com.mongodb.MongoBulkWriteException;
+import com.mongodb.bulk.BulkWriteError;
+
+/**
+ * Leitura dos erros de gravação do Mongo que chegam embrulhados pelo Spring Data.
+ */
+public final class MongoErrors {
+
+    /* Código do Mongo para chave duplicada (ex: _id que já existe). */
+    public static final int DUPLICATE_KEY = 11000;
+
+    private MongoErrors() {
+    }
+
+    /**
+     * O primeiro erro de um insertMany, com a posição do item que falhou, ou null se o erro não veio de
+     * um MongoBulkWriteException. O insertMany ordenado para nesse erro.
+     */
+    public static BulkWriteError firstWriteError(Throwable error) {
+        for (Throwable cause = error; cause != null; cause = cause.getCause()) {
+            if (cause instanceof MongoBulkWriteException) {
+                MongoBulkWriteException bulkWriteException = (MongoBulkWriteException) cause;
+                return bulkWriteException.getWriteErrors().isEmpty() ? null : bulkWriteException.getWriteErrors().get(0);
+            }
+        }
+        return null;
+    }
+
+}
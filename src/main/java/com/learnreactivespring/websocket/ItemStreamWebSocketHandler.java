@@ -0,0 +1,146 @@
+package com.learnreactivespring.websocket;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.learnreactivespring.document.ItemCapped;
+import com.learnreactivespring.stream.ItemCappedStream;
+import com.learnreactivespring.stream.ItemStreamFilter;
+import com.learnreactivespring.stream.OverflowPolicy;
+import com.learnreactivespring.util.Batches;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.stereotype.Component;
+import org.springframework.util.LinkedMultiValueMap;
+import org.springframework.util.MultiValueMap;
+import org.springframework.web.reactive.socket.CloseStatus;
+import org.springframework.web.reactive.socket.WebSocketHandler;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.WebSocketSession;
+import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.util.UriComponentsBuilder;
+import org.springframework.web.util.UriUtils;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+import static com.learnreactivespring.constants.ItemConstants.LAST_EVENT_ID;
+
+/**
+ * Stream de ItemCapped por WebSocket, ex: ws://host/v1/ws/stream/items?batchSize=64&maxDelay=5&format=smile
+ * Aceita os mesmos query params dos outros endpoints de stream (shared, overflow, lastId, minPrice,
+ * maxPrice, descriptionPrefix), e também:
+ * - batchSize e maxDelay (ms): vários itens são agrupados em um único frame, com um array de itens.
+ * - format: json (padrão), em frames de texto, ou smile, o json binário do Jackson, em frames binários.
+ * Para trocar o filtro sem reconectar, o cliente envia um frame de texto com o novo filtro em json,
+ * ex: {"minPrice": 100}. O stream é reaberto com o novo filtro a partir do último item enviado, então
+ * o cliente não recebe itens repetidos. No modo compartilhado, a retomada vem da memória do cursor
+ * compartilhado; se o último item enviado já saiu dela, a conexão passa a usar um cursor próprio.
+ * O send do WebSocket só pede mais itens quando os frames anteriores foram escritos, então um cliente
+ * lento segura o cursor tailable (ou o buffer dele, no modo compartilhado).
+ */
+@Component
+@Slf4j
+public class ItemStreamWebSocketHandler implements WebSocketHandler {
+
+    @Autowired
+    private ItemCappedStream itemCappedStream;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Value("${item.stream.websocket.batch-size:64}")
+    private int defaultBatchSize;
+
+    @Value("${item.stream.websocket.max-delay:5ms}")
+    private Duration defaultDelay;
+
+    @Value("${item.stream.batch.max-size:1024}")
+    private int maxBatchSize;
+
+    @Value("${item.stream.batch.max-delay:1s}")
+    private Duration maxBatchDelay;
+
+    private final ObjectMapper smileMapper = Jackson2ObjectMapperBuilder.smile().build();
+
+    /**
+     * Um query param inválido (batchSize, maxDelay, overflow ou filtro) fecha a conexão com
+     * POLICY_VIOLATION, já que depois do handshake não há mais como responder 400.
+     */
+    @Override
+    public Mono<Void> handle(WebSocketSession session) {
+        MultiValueMap<String, String> queryParams = queryParams(session);
+        boolean shared = Boolean.parseBoolean(queryParams.getFirst("shared"));
+        boolean smile = "smile".equalsIgnoreCase(queryParams.getFirst("format"));
+        OverflowPolicy overflow;
+        int batchSize;
+        Duration delay;
+        ItemStreamFilter filter;
+        try {
+            overflow = OverflowPolicy.from(queryParams.getFirst("overflow"));
+            batchSize = Math.max(1, Math.min(toInt(queryParams.getFirst("batchSize"), defaultBatchSize), maxBatchSize));
+            delay = queryParams.getFirst("maxDelay") == null
+                    ? defaultDelay
+                    : Duration.ofMillis(Math.max(1, Math.min(Long.parseLong(queryParams.getFirst("maxDelay")), maxBatchDelay.toMillis())));
+            filter = ItemStreamFilter.of(queryParams, session.getHandshakeInfo().getHeaders().getFirst(LAST_EVENT_ID));
+        } catch (NumberFormatException | ResponseStatusException e) {
+            log.debug("Closing item stream websocket with invalid parameters : {}", e.getMessage());
+            return session.close(CloseStatus.POLICY_VIOLATION.withReason("Invalid stream parameters"));
+        }
+
+        Flux<ItemStreamFilter> filters = session.receive()
+                .filter(message -> message.getType() == WebSocketMessage.Type.TEXT)
+                .concatMap(message -> readFilter(message.getPayloadAsText()))
+                .startWith(filter);
+
+        /* O Batches respeita a demanda do send, que só pede mais frames quando os anteriores foram escritos. */
+        Flux<WebSocketMessage> frames = Batches.bufferTimeout(itemCappedStream.stream(shared, filters, overflow), batchSize, delay)
+                .map(batch -> smile
+                        ? session.binaryMessage(bufferFactory -> bufferFactory.wrap(write(smileMapper, batch)))
+                        : session.textMessage(new String(write(objectMapper, batch), StandardCharsets.UTF_8)));
+
+        return session.send(frames);
+    }
+
+    /**
+     * Um filtro inválido é ignorado, e o stream continua com o filtro atual.
+     */
+    private Mono<ItemStreamFilter> readFilter(String payload) {
+        return Mono.fromCallable(() -> objectMapper.readValue(payload, ItemStreamFilter.class))
+                .onErrorResume(IOException.class, e -> {
+                    log.warn("Ignoring invalid item stream filter : {}", payload);
+                    return Mono.empty();
+                });
+    }
+
+    private byte[] write(ObjectMapper mapper, List<ItemCapped> batch) {
+        try {
+            return mapper.writeValueAsBytes(batch);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Os query params da URL do handshake, já decodificados.
+     */
+    private MultiValueMap<String, String> queryParams(WebSocketSession session) {
+        MultiValueMap<String, String> encoded = UriComponentsBuilder.fromUri(session.getHandshakeInfo().getUri())
+                .build()
+                .getQueryParams();
+        MultiValueMap<String, String> queryParams = new LinkedMultiValueMap<>();
+        encoded.forEach((name, values) -> values.forEach(value ->
+                queryParams.add(name, value == null ? null : UriUtils.decode(value, StandardCharsets.UTF_8))));
+        return queryParams;
+    }
+
+    private static int toInt(String value, int defaultValue) {
+        return value == null ? defaultValue : Integer.parseInt(value);
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.learnreactivespring.codec;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.learnreactivespring.document.Item;
+import org.junit.jupiter.api.Test;
+import org.springframework.core.ResolvableType;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.MediaType;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class StreamingJsonArrayEncoderTest {
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private final StreamingJsonArrayEncoder encoder =
+            new StreamingJsonArrayEncoder(objectMapper, 2, Duration.ofMillis(10));
+
+    @Test
+    public void encodeFluxAsArray() {
+        Flux<Item> items = Flux.just(
+                new Item("A", "Samsung TV", 399.99),
+                new Item("B", "LG TV", 329.99),
+                new Item("C", "Apple Watch", 349.99));
+
+        Flux<DataBuffer> output = encoder.encode(items, new DefaultDataBufferFactory(),
+                ResolvableType.forClass(Item.class), MediaType.APPLICATION_JSON, Collections.emptyMap());
+
+        /* "[", um bloco com 2 itens, um bloco com 1 item e "]". */
+        StepVerifier.create(output.map(this::asString).collectList())
+                .assertNext(chunks -> {
+                    assertEquals(4, chunks.size());
+                    Item[] decoded = readItems(String.join("", chunks));
+                    assertEquals(3, decoded.length);
+                    assertEquals("C", decoded[2].getId());
+                })
+                .verifyComplete();
+    }
+
+    @Test
+    public void encodeEmptyFlux() {
+        Flux<DataBuffer> output = encoder.encode(Flux.empty(), new DefaultDataBufferFactory(),
+                ResolvableType.forClass(Item.class), MediaType.APPLICATION_JSON, Collections.emptyMap());
+
+        StepVerifier.create(output.map(this::asString).reduce(String::concat))
+                .expectNext("[]")
+                .verifyComplete();
+    }
+
+    /**
+     * Um cliente que demora mais que o chunkDelay para pedir o próximo bloco não encerra a resposta.
+     * Os itens chegam mais devagar que o chunkDelay, então os blocos fecham por tempo, com 1 item.
+     */
+    @Test
+    public void encodeForSlowReader() {
+        Flux<Item> items = Flux.interval(Duration.ofMillis(30))
+                .take(4)
+                .onBackpressureBuffer()
+                .map(i -> new Item("ID" + i, "Item " + i, 10.0 + i));
+
+        Flux<DataBuffer> output = encoder.encode(items, new DefaultDataBufferFactory(),
+                ResolvableType.forClass(Item.class), MediaType.APPLICATION_JSON, Collections.emptyMap());
+
+        StepVerifier.create(output.map(this::asString), 2)
+                .expectNext("[")
+                .expectNextCount(1)
+                .thenAwait(Duration.ofMillis(100))
+                .thenRequest(Long.MAX_VALUE)
+                .thenConsumeWhile(chunk -> true)
+                .verifyComplete();
+    }
+
+    private String asString(DataBuffer dataBuffer) {
+        return dataBuffer.toString(StandardCharsets.UTF_8);
+    }
+
+    private Item[] readItems(String json) {
+        try {
+            return objectMapper.readValue(json, Item[].class);
+        } catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+}
@@ -2,7 +2,14 @@ package com.learnreactivespring.controller.v1;
 
 import com.learnreactivespring.constants.ItemConstants;
 import com.learnreactivespring.document.Item;
+import com.learnreactivespring.document.ItemChange;
+import com.learnreactivespring.dto.BulkItemResult;
+import com.learnreactivespring.dto.ItemLookupResult;
+import com.learnreactivespring.dto.ItemPage;
+import com.learnreactivespring.dto.ItemSyncEvent;
+import com.learnreactivespring.repository.ItemChangeRepository;
 import com.learnreactivespring.repository.ItemReactiveRepository;
+import org.bson.types.ObjectId;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -17,8 +24,13 @@ import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
 import java.util.List;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 /**
@@ -38,6 +50,9 @@ public class ItemControllerTest {
     @Autowired
     private ItemReactiveRepository itemReactiveRepository;
 
+    @Autowired
+    private ItemChangeRepository itemChangeRepository;
+
     private List<Item> data() {
         return Arrays.asList(
                 new Item(null, "Samsung TV", 399.99),
@@ -100,6 +115,104 @@ public class ItemControllerTest {
                 .verifyComplete();
     }
 
+    /**
+     * O "ABC" vem primeiro, pois o Mongo ordena os ids String antes dos ObjectIds. A segunda página
+     * começa depois do último item da primeira.
+     */
+    @Test
+    public void getItemsPage() {
+        ItemPage firstPage = webTestClient.get().uri(ItemConstants.ITEM_END_POINT_V1 + "?limit=3")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(ItemPage.class)
+                .returnResult()
+                .getResponseBody();
+
+        assertEquals(3, firstPage.getItems().size());
+        assertEquals("ABC", firstPage.getItems().get(0).getId());
+        assertNotNull(firstPage.getNext());
+
+        webTestClient.get().uri(ItemConstants.ITEM_END_POINT_V1 + "?after={after}&limit=3", firstPage.getNext())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(ItemPage.class)
+                .consumeWith(response -> {
+                    ItemPage secondPage = response.getResponseBody();
+                    assertEquals(1, secondPage.getItems().size());
+                    assertNull(secondPage.getNext());
+                });
+    }
+
+    @Test
+    public void exportItems() {
+        Flux<Item> itemsFlux = webTestClient.get().uri(ItemConstants.ITEM_EXPORT_END_POINT_V1)
+                .accept(MediaType.APPLICATION_STREAM_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(Item.class)
+                .getResponseBody();
+
+        StepVerifier.create(itemsFlux)
+                .expectNextCount(4)
+                .verifyComplete();
+    }
+
+    /**
+     * Com lotes de 2, o primeiro lote é gravado. O segundo falha por causa do id "ABC", que já existe, e o
+     * item depois dele também não é gravado, pois o insertMany para no primeiro erro.
+     */
+    @Test
+    public void createItems() {
+        Flux<Item> items = Flux.just(
+                new Item(null, "Iphone X", 999.99),
+                new Item(null, "Iphone 11", 1099.99),
+                new Item("ABC", "Duplicated HeadPhones", 9.99),
+                new Item(null, "Iphone SE", 399.99));
+
+        Flux<BulkItemResult> results = webTestClient.post().uri(ItemConstants.ITEM_BULK_END_POINT_V1 + "?batchSize=2")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(items, Item.class)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(BulkItemResult.class)
+                .getResponseBody();
+
+        StepVerifier.create(results)
+                .expectNextMatches(result -> result.isCreated() && result.getItem().getId() != null)
+                .expectNextMatches(BulkItemResult::isCreated)
+                .expectNextMatches(result -> !result.isCreated() && result.getError() != null)
+                .expectNextMatches(result -> !result.isCreated())
+                .verifyComplete();
+    }
+
+    /**
+     * Os itens encontrados vêm primeiro, e os ids não encontrados no final.
+     */
+    @Test
+    public void getItemsByIds() {
+        Flux<ItemLookupResult> results = webTestClient.get().uri(ItemConstants.ITEM_END_POINT_V1 + "?ids=ABC,DEF")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(ItemLookupResult.class)
+                .getResponseBody();
+
+        StepVerifier.create(results)
+                .expectNextMatches(result -> result.isFound() && result.getItem().getDescription().equals("Beats HeadPhones"))
+                .expectNextMatches(result -> !result.isFound() && result.getId().equals("DEF"))
+                .verifyComplete();
+    }
+
+    @Test
+    public void lookupItems() {
+        webTestClient.post().uri(ItemConstants.ITEM_LOOKUP_END_POINT_V1)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Mono.just(Arrays.asList("ABC", "DEF", "ABC")), List.class)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(ItemLookupResult.class)
+                .hasSize(2);
+    }
+
     @Test
     public void getOneItem() {
         webTestClient.get().uri(ItemConstants.ITEM_END_POINT_V1.concat("/{id}"), "ABC")
@@ -143,6 +256,26 @@ public class ItemControllerTest {
                 .expectBody(Void.class);
     }
 
+    /**
+     * O primeiro GET coloca o item no cache. Depois do delete, o item tem que sair do cache
+     * e o GET seguinte deve retornar 404.
+     */
+    @Test
+    public void deleteItem_evictsCache() {
+        webTestClient.get().uri(ItemConstants.ITEM_END_POINT_V1.concat("/{id}"), "ABC")
+                .exchange()
+                .expectStatus().isOk();
+
+        webTestClient.delete().uri(ItemConstants.ITEM_END_POINT_V1.concat("/{id}"), "ABC")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isOk();
+
+        webTestClient.get().uri(ItemConstants.ITEM_END_POINT_V1.concat("/{id}"), "ABC")
+                .exchange()
+                .expectStatus().isNotFound();
+    }
+
     @Test
     public void updateItem() {
         double newPrice = 129.99;
@@ -180,4 +313,93 @@ public class ItemControllerTest {
                 .isEqualTo("RuntimeException Occurred.");
     }
 
+    /**
+     * O create, o update e o delete gravam as alterações no outbox, que são lidas pelo stream de alterações.
+     */
+    @Test
+    public void itemChanges() {
+        webTestClient.post().uri(ItemConstants.ITEM_END_POINT_V1)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Mono.just(new Item("CHG", "Iphone X", 999.99)), Item.class)
+                .exchange()
+                .expectStatus().isCreated();
+
+        webTestClient.put().uri(ItemConstants.ITEM_END_POINT_V1.concat("/{id}"), "CHG")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Mono.just(new Item(null, "Iphone X", 899.99)), Item.class)
+                .exchange()
+                .expectStatus().isOk();
+
+        webTestClient.delete().uri(ItemConstants.ITEM_END_POINT_V1.concat("/{id}"), "CHG")
+                .exchange()
+                .expectStatus().isOk();
+
+        Flux<ItemChange> changes = webTestClient.get().uri(ItemConstants.ITEM_CHANGES_END_POINT_V1)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(ItemChange.class)
+                .getResponseBody()
+                .filter(change -> "CHG".equals(change.getItemId()))
+                .take(3);
+
+        StepVerifier.create(changes)
+                .expectNextMatches(change -> change.getOp() == ItemChange.Op.CREATE
+                        && change.getFields().get("price").equals(999.99))
+                .expectNextMatches(change -> change.getOp() == ItemChange.Op.UPDATE
+                        && change.getFields().get("price").equals(899.99))
+                .expectNextMatches(change -> change.getOp() == ItemChange.Op.DELETE)
+                .verifyComplete();
+    }
+
+    /**
+     * Uma alteração gravada depois do lastId, mas com um ObjectId menor (ex: gerado por outro nó), também
+     * é recebida na retomada.
+     */
+    @Test
+    public void itemChanges_resumeWithOlderIds() {
+        ItemChange last = itemChangeRepository.insert(
+                new ItemChange(null, ItemChange.Op.CREATE, "LAST", Collections.emptyMap())).block();
+        String olderId = new ObjectId(new Date(0)).toHexString();
+
+        Flux<ItemChange> changes = webTestClient.get().uri(ItemConstants.ITEM_CHANGES_END_POINT_V1 + "?lastId=" + last.getId())
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(ItemChange.class)
+                .getResponseBody()
+                .take(1);
+
+        StepVerifier.create(changes)
+                .then(() -> itemChangeRepository.insert(
+                        new ItemChange(olderId, ItemChange.Op.DELETE, "OLDER", Collections.emptyMap())).block())
+                .expectNextMatches(change -> "OLDER".equals(change.getItemId()))
+                .verifyComplete();
+    }
+
+    /**
+     * Os 4 itens do setUp vêm no snapshot, seguidos do MARKER. Um item criado depois chega como CHANGE.
+     */
+    @Test
+    public void syncItems() {
+        Flux<ItemSyncEvent> events = webTestClient.get().uri(ItemConstants.ITEM_SYNC_END_POINT_V1)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(ItemSyncEvent.class)
+                .getResponseBody();
+
+        StepVerifier.create(events)
+                .expectNextMatches(event -> event.getType() == ItemSyncEvent.Type.SNAPSHOT)
+                .expectNextCount(3)
+                .expectNextMatches(event -> event.getType() == ItemSyncEvent.Type.MARKER)
+                .then(() -> webTestClient.post().uri(ItemConstants.ITEM_END_POINT_V1)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .body(Mono.just(new Item("SYNC", "Iphone X", 999.99)), Item.class)
+                        .exchange()
+                        .expectStatus().isCreated())
+                .thenConsumeWhile(event -> !"SYNC".equals(event.getChange().getItemId()))
+                .expectNextMatches(event -> event.getType() == ItemSyncEvent.Type.CHANGE
+                        && event.getChange().getOp() == ItemChange.Op.CREATE)
+                .thenCancel()
+                .verify();
+    }
+
 }
@@ -0,0 +1,139 @@
+package com.learnreactivespring.controller.v1;
+
+import com.learnreactivespring.constants.ItemConstants;
+import com.learnreactivespring.document.Item;
+import com.learnreactivespring.document.ItemCapped;
+import com.learnreactivespring.repository.ItemReactiveCappedRepository;
+import com.learnreactivespring.repository.ItemReactiveRepository;
+import com.learnreactivespring.stream.ItemStreamFilter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.rsocket.context.LocalRSocketServerPort;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.CollectionOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.messaging.rsocket.RSocketRequester;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+@SpringBootTest
+@DirtiesContext
+@ActiveProfiles("test")
+public class ItemRSocketControllerTest {
+
+    @LocalRSocketServerPort
+    int port;
+
+    @Autowired
+    RSocketRequester.Builder rsocketRequesterBuilder;
+
+    @Autowired
+    ItemReactiveRepository itemReactiveRepository;
+
+    @Autowired
+    ItemReactiveCappedRepository itemReactiveCappedRepository;
+
+    @Autowired
+    MongoOperations mongoOperations;
+
+    private RSocketRequester requester;
+
+    private List<Item> data() {
+        return Arrays.asList(
+                new Item(null, "Samsung TV", 399.99),
+                new Item(null, "LG TV", 329.99),
+                new Item(null, "Apple Watch", 349.99),
+                new Item("ABC", "Beats HeadPhones", 19.99));
+    }
+
+    @BeforeEach
+    public void setUp() {
+        itemReactiveRepository.deleteAll()
+                .thenMany(Flux.fromIterable(data()))
+                .flatMap(itemReactiveRepository::save)
+                .blockLast();
+
+        mongoOperations.dropCollection(ItemCapped.class);
+        mongoOperations.createCollection(ItemCapped.class, CollectionOptions.empty()
+                .maxDocuments(20)
+                .size(50000)
+                .capped());
+        Flux<ItemCapped> itemCappedFlux = Flux.interval(Duration.ofMillis(1))
+                .map(i -> new ItemCapped(null, "Random Item " + i, 100.0 + i))
+                .take(5);
+        itemReactiveCappedRepository.insert(itemCappedFlux).blockLast();
+
+        requester = rsocketRequesterBuilder.connectTcp("localhost", port).block();
+    }
+
+    @AfterEach
+    public void tearDown() {
+        requester.rsocket().dispose();
+    }
+
+    @Test
+    public void findById() {
+        StepVerifier.create(requester.route(ItemConstants.ITEM_RSOCKET_FIND_BY_ID)
+                .data("ABC")
+                .retrieveMono(Item.class))
+                .expectNextMatches(item -> item.getDescription().equals("Beats HeadPhones"))
+                .verifyComplete();
+    }
+
+    /**
+     * O StepVerifier pede os itens aos poucos, e o request(n) chega ao servidor pelo RSocket.
+     */
+    @Test
+    public void findAll() {
+        StepVerifier.create(requester.route(ItemConstants.ITEM_RSOCKET_FIND_ALL)
+                .retrieveFlux(Item.class), 1)
+                .expectNextCount(1)
+                .thenRequest(3)
+                .expectNextCount(3)
+                .verifyComplete();
+    }
+
+    @Test
+    public void stream() {
+        Flux<ItemCapped> itemCappedFlux = requester.route(ItemConstants.ITEM_RSOCKET_STREAM)
+                .data(new ItemStreamFilter(null, 103.0, null, null))
+                .retrieveFlux(ItemCapped.class)
+                .take(2);
+
+        StepVerifier.create(itemCappedFlux)
+                .expectNextMatches(itemCapped -> itemCapped.getPrice() >= 103)
+                .expectNextMatches(itemCapped -> itemCapped.getPrice() >= 103)
+                .verifyComplete();
+    }
+
+    /**
+     * O primeiro filtro não deixa passar nenhum item. O segundo, enviado no mesmo canal, troca o filtro.
+     */
+    @Test
+    public void streamChannel() {
+        Flux<ItemStreamFilter> filters = Flux.concat(
+                Flux.just(new ItemStreamFilter(null, 1000.0, null, null)),
+                Flux.just(new ItemStreamFilter(null, 103.0, null, null)).delayElements(Duration.ofMillis(200)))
+                /* Mantém o canal aberto depois de enviar os filtros. */
+                .concatWith(Flux.never());
+
+        Flux<ItemCapped> itemCappedFlux = requester.route(ItemConstants.ITEM_RSOCKET_STREAM_CHANNEL)
+                .data(filters, ItemStreamFilter.class)
+                .retrieveFlux(ItemCapped.class)
+                .take(2);
+
+        StepVerifier.create(itemCappedFlux)
+                .expectNextMatches(itemCapped -> itemCapped.getPrice() >= 103)
+                .expectNextMatches(itemCapped -> itemCapped.getPrice() >= 103)
+                .verifyComplete();
+    }
+
+}
@@ -8,8 +8,11 @@ import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.reactive.AutoConfigureWebTestClient;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.data.mongodb.core.CollectionOptions;
 import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.reactive.server.WebTestClient;
@@ -17,6 +20,9 @@ import reactor.core.publisher.Flux;
 import reactor.test.StepVerifier;
 
 import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @SpringBootTest
 @DirtiesContext
@@ -71,4 +77,122 @@ public class ItemStreamControllerTest {
                 .verify();
     }
 
+    /**
+     * O primeiro subscriber abre o cursor compartilhado, e por isso recebe os itens que já estão
+     * na capped collection.
+     */
+    @Test
+    public void testStreamAllItems_shared() {
+        Flux<ItemCapped> itemCappedFlux = webTestClient.get().uri(ItemConstants.ITEM_STREAM_END_POINT_V1 + "?shared=true")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(ItemCapped.class)
+                .getResponseBody()
+                .take(5);
+
+        StepVerifier.create(itemCappedFlux)
+                .expectNextCount(5)
+                .thenCancel()
+                .verify();
+    }
+
+    /**
+     * Ao informar o último id recebido, o stream começa logo depois dele.
+     */
+    @Test
+    public void testStreamItems_resume() {
+        /* Os ids são ObjectIds, que crescem na ordem em que foram gerados. */
+        List<String> storedIds = itemReactiveCappedRepository.findAll()
+                .map(ItemCapped::getId)
+                .sort()
+                .collectList()
+                .block();
+        String lastId = storedIds.get(2);
+
+        Flux<ItemCapped> itemCappedFlux = webTestClient.get().uri(ItemConstants.ITEM_STREAM_END_POINT_V1 + "?lastId={lastId}", lastId)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(ItemCapped.class)
+                .getResponseBody()
+                .take(2);
+
+        StepVerifier.create(itemCappedFlux.map(ItemCapped::getId).collectList())
+                .assertNext(ids -> assertTrue(ids.containsAll(storedIds.subList(3, 5))))
+                .verifyComplete();
+    }
+
+    /**
+     * Cada item vem como um evento "item", com o id do ItemCapped. Os heartbeats não têm data.
+     */
+    @Test
+    public void testStreamItems_sse() {
+        Flux<ServerSentEvent<ItemCapped>> events = webTestClient.get().uri(ItemConstants.ITEM_SSE_END_POINT_V1 + "?shared=true&overflow=drop-oldest")
+                .accept(MediaType.TEXT_EVENT_STREAM)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(new ParameterizedTypeReference<ServerSentEvent<ItemCapped>>() {
+                })
+                .getResponseBody()
+                .filter(event -> event.data() != null)
+                .take(5);
+
+        StepVerifier.create(events)
+                .expectNextMatches(event -> "item".equals(event.event()) && event.id().equals(event.data().getId()))
+                .expectNextCount(4)
+                .thenCancel()
+                .verify();
+    }
+
+    /**
+     * Os itens abaixo do minPrice são filtrados na query do cursor tailable.
+     */
+    @Test
+    public void testStreamItems_filtered() {
+        Flux<ItemCapped> itemCappedFlux = webTestClient.get().uri(ItemConstants.ITEM_STREAM_END_POINT_V1 + "?minPrice=103")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(ItemCapped.class)
+                .getResponseBody()
+                .take(2);
+
+        StepVerifier.create(itemCappedFlux)
+                .expectNextMatches(itemCapped -> itemCapped.getPrice() >= 103)
+                .expectNextMatches(itemCapped -> itemCapped.getPrice() >= 103)
+                .thenCancel()
+                .verify();
+    }
+
+    /**
+     * Os 5 itens da capped collection chegam em lotes de até 2, mas o cliente continua lendo um item
+     * por linha.
+     */
+    @Test
+    public void testStreamItems_batched() {
+        Flux<ItemCapped> itemCappedFlux = webTestClient.get().uri(ItemConstants.ITEM_STREAM_END_POINT_V1 + "?batchSize=2&maxDelay=5")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(ItemCapped.class)
+                .getResponseBody()
+                .take(5);
+
+        StepVerifier.create(itemCappedFlux)
+                .expectNextCount(5)
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    public void testStreamItems_invalidFilter() {
+        webTestClient.get().uri(ItemConstants.ITEM_STREAM_END_POINT_V1 + "?minPrice=abc")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    public void testStreamItems_invalidOverflow() {
+        webTestClient.get().uri(ItemConstants.ITEM_STREAM_END_POINT_V1 + "?overflow=bogus")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
 }
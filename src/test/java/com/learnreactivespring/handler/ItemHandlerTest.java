@@ -2,6 +2,11 @@ package com.learnreactivespring.handler;
 
 import com.learnreactivespring.constants.ItemConstants;
 import com.learnreactivespring.document.Item;
+import com.learnreactivespring.document.ItemChange;
+import com.learnreactivespring.dto.BulkItemResult;
+import com.learnreactivespring.dto.ItemLookupResult;
+import com.learnreactivespring.dto.ItemPage;
+import com.learnreactivespring.dto.ItemSyncEvent;
 import com.learnreactivespring.repository.ItemReactiveRepository;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -13,10 +18,16 @@ import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.web.reactive.server.WebTestClient;
 import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
 
 import java.util.Arrays;
 import java.util.List;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
 /**
  * Usa o @ActiveProfiles para rodar no Profile de teste, e evitar que quando subir o
  * contexto da aplicação, seja executado o CommandLineRunner e feito a conexão com banco
@@ -61,6 +72,140 @@ public class ItemHandlerTest {
                 .hasSize(4);
     }
 
+    /**
+     * O "ABC" vem primeiro, pois o Mongo ordena os ids String antes dos ObjectIds. A segunda página
+     * começa depois do último item da primeira.
+     */
+    @Test
+    public void getItemsPage() {
+        ItemPage firstPage = webTestClient.get().uri(ItemConstants.ITEM_FUNCTIONAL_END_POINT_V1 + "?limit=3")
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(ItemPage.class)
+                .returnResult()
+                .getResponseBody();
+
+        assertEquals(3, firstPage.getItems().size());
+        assertEquals("ABC", firstPage.getItems().get(0).getId());
+        assertNotNull(firstPage.getNext());
+
+        webTestClient.get().uri(ItemConstants.ITEM_FUNCTIONAL_END_POINT_V1 + "?after={after}&limit=3", firstPage.getNext())
+                .exchange()
+                .expectStatus().isOk()
+                .expectBody(ItemPage.class)
+                .consumeWith(response -> {
+                    ItemPage secondPage = response.getResponseBody();
+                    assertEquals(1, secondPage.getItems().size());
+                    assertNull(secondPage.getNext());
+                });
+    }
+
+    @Test
+    public void exportItems() {
+        Flux<Item> itemsFlux = webTestClient.get().uri(ItemConstants.ITEM_EXPORT_FUNCTIONAL_END_POINT_V1)
+                .accept(MediaType.APPLICATION_STREAM_JSON)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(Item.class)
+                .getResponseBody();
+
+        StepVerifier.create(itemsFlux)
+                .expectNextCount(4)
+                .verifyComplete();
+    }
+
+    /**
+     * Com lotes de 2, o primeiro lote é gravado. O segundo falha por causa do id "ABC", que já existe, e o
+     * item depois dele também não é gravado, pois o insertMany para no primeiro erro.
+     */
+    @Test
+    public void createItems() {
+        Flux<Item> items = Flux.just(
+                new Item(null, "Iphone X", 999.99),
+                new Item(null, "Iphone 11", 1099.99),
+                new Item("ABC", "Duplicated HeadPhones", 9.99),
+                new Item(null, "Iphone SE", 399.99));
+
+        Flux<BulkItemResult> results = webTestClient.post().uri(ItemConstants.ITEM_BULK_FUNCTIONAL_END_POINT_V1 + "?batchSize=2")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(items, Item.class)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(BulkItemResult.class)
+                .getResponseBody();
+
+        StepVerifier.create(results)
+                .expectNextMatches(result -> result.isCreated() && result.getItem().getId() != null)
+                .expectNextMatches(BulkItemResult::isCreated)
+                .expectNextMatches(result -> !result.isCreated() && result.getError() != null)
+                .expectNextMatches(result -> !result.isCreated())
+                .verifyComplete();
+    }
+
+    /**
+     * O "ABC" já existe com os mesmos dados. Ele não foi criado por esta requisição, então é reportado
+     * como falha.
+     */
+    @Test
+    public void createItems_identicalExistingItem() {
+        Flux<BulkItemResult> results = webTestClient.post().uri(ItemConstants.ITEM_BULK_FUNCTIONAL_END_POINT_V1)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Flux.just(new Item("ABC", "Beats HeadPhones", 19.99)), Item.class)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(BulkItemResult.class)
+                .getResponseBody();
+
+        StepVerifier.create(results)
+                .expectNextMatches(result -> !result.isCreated() && result.getError() != null)
+                .verifyComplete();
+    }
+
+    @Test
+    public void createItems_invalidBatchSize() {
+        webTestClient.post().uri(ItemConstants.ITEM_BULK_FUNCTIONAL_END_POINT_V1 + "?batchSize=abc")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Flux.just(new Item(null, "Iphone X", 999.99)), Item.class)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    /**
+     * Os itens encontrados vêm primeiro, e os ids não encontrados no final.
+     */
+    @Test
+    public void getItemsByIds() {
+        Flux<ItemLookupResult> results = webTestClient.get().uri(ItemConstants.ITEM_FUNCTIONAL_END_POINT_V1 + "?ids=ABC,DEF")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(ItemLookupResult.class)
+                .getResponseBody();
+
+        StepVerifier.create(results)
+                .expectNextMatches(result -> result.isFound() && result.getItem().getDescription().equals("Beats HeadPhones"))
+                .expectNextMatches(result -> !result.isFound() && result.getId().equals("DEF"))
+                .verifyComplete();
+    }
+
+    @Test
+    public void getItemsByIds_empty() {
+        webTestClient.get().uri(ItemConstants.ITEM_FUNCTIONAL_END_POINT_V1 + "?ids=")
+                .accept(MediaType.APPLICATION_JSON)
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    public void lookupItems() {
+        webTestClient.post().uri(ItemConstants.ITEM_LOOKUP_FUNCTIONAL_END_POINT_V1)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Mono.just(Arrays.asList("ABC", "DEF", "ABC")), List.class)
+                .exchange()
+                .expectStatus().isOk()
+                .expectBodyList(ItemLookupResult.class)
+                .hasSize(2);
+    }
+
     @Test
     public void getOneItem() {
         webTestClient.get().uri(ItemConstants.ITEM_FUNCTIONAL_END_POINT_V1.concat("/{id}"), "ABC")
@@ -87,4 +232,69 @@ public class ItemHandlerTest {
                 .jsonPath("$.message", "RuntimeException Occurred");
     }
 
+    /**
+     * O create, o update e o delete gravam as alterações no outbox, que são lidas pelo stream de alterações.
+     */
+    @Test
+    public void itemChanges() {
+        webTestClient.post().uri(ItemConstants.ITEM_FUNCTIONAL_END_POINT_V1)
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Mono.just(new Item("FUN-CHG", "Iphone X", 999.99)), Item.class)
+                .exchange()
+                .expectStatus().isCreated();
+
+        webTestClient.put().uri(ItemConstants.ITEM_FUNCTIONAL_END_POINT_V1.concat("/{id}"), "FUN-CHG")
+                .contentType(MediaType.APPLICATION_JSON)
+                .body(Mono.just(new Item(null, "Iphone X", 899.99)), Item.class)
+                .exchange()
+                .expectStatus().isOk();
+
+        webTestClient.delete().uri(ItemConstants.ITEM_FUNCTIONAL_END_POINT_V1.concat("/{id}"), "FUN-CHG")
+                .exchange()
+                .expectStatus().isOk();
+
+        Flux<ItemChange> changes = webTestClient.get().uri(ItemConstants.ITEM_CHANGES_FUNCTIONAL_END_POINT_V1)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(ItemChange.class)
+                .getResponseBody()
+                .filter(change -> "FUN-CHG".equals(change.getItemId()))
+                .take(3);
+
+        StepVerifier.create(changes)
+                .expectNextMatches(change -> change.getOp() == ItemChange.Op.CREATE
+                        && change.getFields().get("price").equals(999.99))
+                .expectNextMatches(change -> change.getOp() == ItemChange.Op.UPDATE
+                        && change.getFields().get("price").equals(899.99))
+                .expectNextMatches(change -> change.getOp() == ItemChange.Op.DELETE)
+                .verifyComplete();
+    }
+
+    /**
+     * Os 4 itens do setUp vêm no snapshot, seguidos do MARKER. Um item criado depois chega como CHANGE.
+     */
+    @Test
+    public void syncItems() {
+        Flux<ItemSyncEvent> events = webTestClient.get().uri(ItemConstants.ITEM_SYNC_FUNCTIONAL_END_POINT_V1)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(ItemSyncEvent.class)
+                .getResponseBody();
+
+        StepVerifier.create(events)
+                .expectNextMatches(event -> event.getType() == ItemSyncEvent.Type.SNAPSHOT)
+                .expectNextCount(3)
+                .expectNextMatches(event -> event.getType() == ItemSyncEvent.Type.MARKER)
+                .then(() -> webTestClient.post().uri(ItemConstants.ITEM_FUNCTIONAL_END_POINT_V1)
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .body(Mono.just(new Item("FUN-SYNC", "Iphone X", 999.99)), Item.class)
+                        .exchange()
+                        .expectStatus().isCreated())
+                .thenConsumeWhile(event -> !"FUN-SYNC".equals(event.getChange().getItemId()))
+                .expectNextMatches(event -> event.getType() == ItemSyncEvent.Type.CHANGE
+                        && event.getChange().getOp() == ItemChange.Op.CREATE)
+                .thenCancel()
+                .verify();
+    }
+
 }
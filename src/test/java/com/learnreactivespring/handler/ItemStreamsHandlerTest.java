@@ -17,6 +17,9 @@ import reactor.core.publisher.Flux;
 import reactor.test.StepVerifier;
 
 import java.time.Duration;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 @SpringBootTest
 @DirtiesContext
@@ -71,4 +74,101 @@ public class ItemStreamsHandlerTest {
                 .verify();
     }
 
+    /**
+     * O primeiro subscriber abre o cursor compartilhado, e por isso recebe os itens que já estão
+     * na capped collection.
+     */
+    @Test
+    public void testStreamAllItems_shared() {
+        Flux<ItemCapped> itemCappedFlux = webTestClient.get().uri(ItemConstants.ITEM_STREAM_FUNCTIONAL_END_POINT_V1 + "?shared=true")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(ItemCapped.class)
+                .getResponseBody()
+                .take(5);
+
+        StepVerifier.create(itemCappedFlux)
+                .expectNextCount(5)
+                .thenCancel()
+                .verify();
+    }
+
+    /**
+     * Ao informar o último id recebido no header Last-Event-ID, o stream começa logo depois dele.
+     */
+    @Test
+    public void testStreamItems_resume() {
+        /* Os ids são ObjectIds, que crescem na ordem em que foram gerados. */
+        List<String> storedIds = itemReactiveCappedRepository.findAll()
+                .map(ItemCapped::getId)
+                .sort()
+                .collectList()
+                .block();
+        String lastId = storedIds.get(2);
+
+        Flux<ItemCapped> itemCappedFlux = webTestClient.get().uri(ItemConstants.ITEM_STREAM_FUNCTIONAL_END_POINT_V1)
+                .header(ItemConstants.LAST_EVENT_ID, lastId)
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(ItemCapped.class)
+                .getResponseBody()
+                .take(2);
+
+        StepVerifier.create(itemCappedFlux.map(ItemCapped::getId).collectList())
+                .assertNext(ids -> assertTrue(ids.containsAll(storedIds.subList(3, 5))))
+                .verifyComplete();
+    }
+
+    /**
+     * No cursor compartilhado, os filtros são aplicados antes do buffer do cliente.
+     */
+    @Test
+    public void testStreamItems_filtered() {
+        Flux<ItemCapped> itemCappedFlux = webTestClient.get().uri(ItemConstants.ITEM_STREAM_FUNCTIONAL_END_POINT_V1 + "?shared=true&minPrice=103&descriptionPrefix=Random")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(ItemCapped.class)
+                .getResponseBody()
+                .take(2);
+
+        StepVerifier.create(itemCappedFlux)
+                .expectNextMatches(itemCapped -> itemCapped.getPrice() >= 103)
+                .expectNextMatches(itemCapped -> itemCapped.getPrice() >= 103)
+                .thenCancel()
+                .verify();
+    }
+
+    /**
+     * Os 5 itens da capped collection chegam em lotes de até 2, mas o cliente continua lendo um item
+     * por linha.
+     */
+    @Test
+    public void testStreamItems_batched() {
+        Flux<ItemCapped> itemCappedFlux = webTestClient.get().uri(ItemConstants.ITEM_STREAM_FUNCTIONAL_END_POINT_V1 + "?batchSize=2&maxDelay=5")
+                .exchange()
+                .expectStatus().isOk()
+                .returnResult(ItemCapped.class)
+                .getResponseBody()
+                .take(5);
+
+        StepVerifier.create(itemCappedFlux)
+                .expectNextCount(5)
+                .thenCancel()
+                .verify();
+    }
+
+    @Test
+    public void testStreamItems_invalidFilter() {
+        webTestClient.get().uri(ItemConstants.ITEM_STREAM_FUNCTIONAL_END_POINT_V1 + "?minPrice=abc")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
+    @Test
+    public void testStreamItems_invalidOverflow() {
+        webTestClient.get().uri(ItemConstants.ITEM_STREAM_FUNCTIONAL_END_POINT_V1 + "?overflow=bogus")
+                .exchange()
+                .expectStatus().isBadRequest();
+    }
+
 }
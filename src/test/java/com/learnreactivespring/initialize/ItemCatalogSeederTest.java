@@ -0,0 +1,55 @@
+package com.learnreactivespring.initialize;
+
+import com.learnreactivespring.document.Item;
+import com.learnreactivespring.repository.ItemReactiveRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import reactor.test.StepVerifier;
+
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * O último lote fica incompleto: 2 lotes de 100 e um de 50.
+ */
+@SpringBootTest(properties = {
+        "item.seed.count=250",
+        "item.seed.batch-size=100",
+        "item.seed.concurrency=2"})
+@DirtiesContext
+@ActiveProfiles("test")
+public class ItemCatalogSeederTest {
+
+    @Autowired
+    ItemCatalogSeeder itemCatalogSeeder;
+
+    @Autowired
+    ItemReactiveRepository itemReactiveRepository;
+
+    @BeforeEach
+    public void setUp() {
+        itemReactiveRepository.deleteAll().block();
+    }
+
+    @Test
+    public void seed() {
+        StepVerifier.create(itemCatalogSeeder.seed())
+                .expectNext(250L)
+                .verifyComplete();
+
+        StepVerifier.create(itemReactiveRepository.findAll().collectList())
+                .assertNext(items -> {
+                    assertEquals(250, items.size());
+                    assertEquals(250, items.stream().map(Item::getDescription).collect(HashSet::new, HashSet::add, HashSet::addAll).size());
+                    assertTrue(items.stream().allMatch(item -> item.getPrice() > 0));
+                })
+                .verifyComplete();
+    }
+
+}
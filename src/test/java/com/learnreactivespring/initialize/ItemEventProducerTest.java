@@ -0,0 +1,87 @@
+package com.learnreactivespring.initialize;
+
+import com.learnreactivespring.document.ItemCapped;
+import com.learnreactivespring.repository.ItemReactiveCappedRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.CollectionOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest(properties = {
+        "item.producer.rate=200",
+        "item.producer.parallelism=2",
+        "item.producer.batch-size=5",
+        "item.producer.payload.min-size=10",
+        "item.producer.payload.max-size=10"})
+@DirtiesContext
+@ActiveProfiles("test")
+public class ItemEventProducerTest {
+
+    @Autowired
+    ItemEventProducer itemEventProducer;
+
+    @Autowired
+    ItemReactiveCappedRepository itemReactiveCappedRepository;
+
+    @Autowired
+    MeterRegistry meterRegistry;
+
+    @Autowired
+    MongoOperations mongoOperations;
+
+    /**
+     * A capped collection é criada como no startup, mas grande o bastante para guardar todos os eventos do
+     * teste.
+     */
+    @BeforeEach
+    public void setUp() {
+        mongoOperations.dropCollection(ItemCapped.class);
+        mongoOperations.createCollection(ItemCapped.class, CollectionOptions.empty()
+                .maxDocuments(10000)
+                .size(10485760)
+                .capped());
+    }
+
+    /**
+     * Os eventos contados foram gravados, e a latência de cada lote foi medida.
+     */
+    @Test
+    public void start_producesEventsInBatches() {
+        Disposable producer = itemEventProducer.start();
+        /* Espera os primeiros lotes serem gravados, em vez de um tempo fixo. */
+        Flux.interval(Duration.ofMillis(20))
+                .map(tick -> meterRegistry.get("item.producer.events").counter().count())
+                .filter(count -> count >= 10)
+                .blockFirst(Duration.ofSeconds(10));
+        producer.dispose();
+
+        long events = (long) meterRegistry.get("item.producer.events").counter().count();
+        assertTrue(events >= 10);
+        assertTrue(meterRegistry.get("item.producer.insert").timer().count() > 0);
+
+        /* Um lote cancelado pelo dispose pode ter sido gravado sem entrar no contador. */
+        StepVerifier.create(itemReactiveCappedRepository.count())
+                .assertNext(count -> assertTrue(count >= events))
+                .verifyComplete();
+
+        /* A descrição leva um espaço e os 10 caracteres aleatórios do payload. */
+        StepVerifier.create(itemReactiveCappedRepository.findAll().take(1))
+                .assertNext(itemCapped -> assertEquals(11, itemCapped.getDescription().length()
+                        - itemCapped.getDescription().indexOf(' ', "Random Item".length() + 1)))
+                .verifyComplete();
+    }
+
+}
@@ -1,11 +1,16 @@
 package com.learnreactivespring.repository;
 
 import com.learnreactivespring.document.Item;
+import com.learnreactivespring.initialize.ItemIndexInitializer;
+import org.bson.Document;
+import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.data.mongo.DataMongoTest;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.data.mongodb.core.ReactiveMongoOperations;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ActiveProfiles;
 import reactor.core.publisher.Flux;
@@ -14,6 +19,11 @@ import reactor.test.StepVerifier;
 
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.core.query.Query.query;
 
 /**
  * @DataMongoTest carrega apenas as classes necessárias para fazer o teste com o mongo embarcado.
@@ -21,15 +31,23 @@ import java.util.List;
  * por exemplo, o saveItem(). Se eu rodo o teste individual, sem colocar essa annotation, ele passa,
  * mas quando ele roda dentro do build do gradle, ele dá erro se não tivermos colocado ela.
  * Basicamente, cada novo teste executado, ganha um contexto novo.
+ * O @Import traz o ItemIndexInitializer, que não faz parte dos beans carregados pelo @DataMongoTest.
  */
 @DataMongoTest
 @DirtiesContext
 @ActiveProfiles("test")
+@Import(ItemIndexInitializer.class)
 public class ItemReactiveRepositoryTest {
 
     @Autowired
     private ItemReactiveRepository itemReactiveRepository;
 
+    @Autowired
+    private ItemIndexInitializer itemIndexInitializer;
+
+    @Autowired
+    private ReactiveMongoOperations reactiveMongoOperations;
+
     private List<Item> itemList = Arrays.asList(
             new Item(null, "Samsung TV", 400.0)
             , new Item(null, "LG TV", 420.0)
@@ -53,6 +71,43 @@ public class ItemReactiveRepositoryTest {
                  * quando os testes começarem a executar, todos os dados foram inseridos.
                  * Atenção: Não deve ser usado em produção, somente em casos de teste. */
                 .blockLast();
+
+        itemIndexInitializer.ensureIndexes().block();
+
+        /* Liga o profiler do Mongo, que grava o plano de execução de cada operação na system.profile. */
+        reactiveMongoOperations.executeCommand("{ profile: 2 }").block();
+    }
+
+    /**
+     * Falha o teste se alguma consulta com filtro feita pelo repository precisou ler a collection
+     * inteira (COLLSCAN), ou seja, não usou nenhum índice. Consultas sem filtro, como o findAll, são
+     * ignoradas, pois elas sempre leem tudo.
+     */
+    @AfterEach
+    public void noCollectionScans() {
+        reactiveMongoOperations.executeCommand("{ profile: 0 }").block();
+
+        List<Document> collectionScans = reactiveMongoOperations
+                .find(query(where("ns").regex("\\.item$").and("op").is("query").and("planSummary").is("COLLSCAN")),
+                        Document.class, "system.profile")
+                .filter(this::hasFilter)
+                .collectList()
+                .block();
+
+        reactiveMongoOperations.dropCollection("system.profile").block();
+
+        assertTrue(collectionScans.isEmpty(), "Queries without index : " + collectionScans);
+    }
+
+    /* Dependendo da versão do Mongo, o comando find fica no campo command ou no campo query. */
+    private boolean hasFilter(Document profileEntry) {
+        for (String field : Arrays.asList("command", "query")) {
+            Object command = profileEntry.get(field);
+            if (command instanceof Map && ((Map<?, ?>) command).get("filter") instanceof Map) {
+                return !((Map<?, ?>) ((Map<?, ?>) command).get("filter")).isEmpty();
+            }
+        }
+        return false;
     }
 
     @Test
@@ -110,6 +165,26 @@ public class ItemReactiveRepositoryTest {
                 .verifyComplete();
     }
 
+    @Test
+    public void updateItem_atomic() {
+        Mono<Item> updatedItem = itemReactiveRepository.updateItem("ABC", new Item(null, "Bose QC", 199.99));
+
+        StepVerifier.create(updatedItem)
+                .expectSubscription()
+                /* O findAndModify retorna o documento já alterado. */
+                .expectNextMatches(item -> item.getId().equals("ABC")
+                        && item.getDescription().equals("Bose QC")
+                        && item.getPrice() == 199.99)
+                .verifyComplete();
+    }
+
+    @Test
+    public void updateItem_atomic_notFound() {
+        StepVerifier.create(itemReactiveRepository.updateItem("DEF", new Item(null, "Bose QC", 199.99)))
+                .expectSubscription()
+                .verifyComplete();
+    }
+
     @Test
     public void deleteItemById() {
         Mono<Void> deletedItem = itemReactiveRepository
@@ -0,0 +1,69 @@
+package com.learnreactivespring.service;
+
+import com.learnreactivespring.document.Item;
+import com.learnreactivespring.repository.ItemReactiveRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.mock.mockito.SpyBean;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.Mockito.doAnswer;
+
+/**
+ * Com concurrency = 1 e inserts lentos, os lotes que fecham por tempo ficam esperando o lote anterior
+ * ser gravado. Nenhum create pode ficar sem resposta.
+ */
+@SpringBootTest(properties = {
+        "item.insert-coalescing.enabled=true",
+        "item.insert-coalescing.max-batch-size=4",
+        "item.insert-coalescing.max-delay=1ms",
+        "item.insert-coalescing.concurrency=1"})
+@DirtiesContext
+@ActiveProfiles("test")
+public class ItemInsertCoalescerSlowInsertTest {
+
+    @Autowired
+    private ItemInsertCoalescer itemInsertCoalescer;
+
+    @Autowired
+    private ItemReactiveRepository itemReactiveRepository;
+
+    @SpyBean
+    private ItemChangePublisher itemChangePublisher;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    public void setUp() {
+        itemReactiveRepository.deleteAll().block();
+
+        /* Cada lote demora pelo menos 50ms para terminar. */
+        doAnswer(invocation -> Mono.delay(Duration.ofMillis(50)).then((Mono<Void>) invocation.callRealMethod()))
+                .when(itemChangePublisher).created(anyCollection());
+    }
+
+    @Test
+    public void createWithSlowInserts() {
+        Flux<Item> created = Flux.range(0, 20)
+                .delayElements(Duration.ofMillis(5))
+                .flatMap(i -> itemInsertCoalescer.create(new Item(null, "Item " + i, 10.0 + i)));
+
+        StepVerifier.create(created)
+                .expectNextCount(20)
+                .expectComplete()
+                .verify(Duration.ofSeconds(10));
+
+        StepVerifier.create(itemReactiveRepository.count())
+                .expectNext(20L)
+                .verifyComplete();
+    }
+
+}
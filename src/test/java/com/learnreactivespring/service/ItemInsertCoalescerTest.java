@@ -0,0 +1,92 @@
+package com.learnreactivespring.service;
+
+import com.learnreactivespring.document.Item;
+import com.learnreactivespring.repository.ItemReactiveRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.HttpStatus;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.web.server.ResponseStatusException;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+@SpringBootTest(properties = "item.insert-coalescing.enabled=true")
+@DirtiesContext
+@ActiveProfiles("test")
+public class ItemInsertCoalescerTest {
+
+    @Autowired
+    private ItemInsertCoalescer itemInsertCoalescer;
+
+    @Autowired
+    private ItemReactiveRepository itemReactiveRepository;
+
+    @BeforeEach
+    public void setUp() {
+        itemReactiveRepository.deleteAll()
+                .then(itemReactiveRepository.save(new Item("ABC", "Beats HeadPhones", 19.99)))
+                .block();
+    }
+
+    /**
+     * Cada create concorrente recebe o seu próprio item, com um id diferente.
+     */
+    @Test
+    public void createConcurrently() {
+        Flux<Item> created = Flux.range(0, 100)
+                .flatMap(i -> itemInsertCoalescer.create(new Item(null, "Item " + i, 10.0 + i)));
+
+        StepVerifier.create(created.map(Item::getId).collect(HashSet::new, HashSet::add))
+                .assertNext(ids -> assertEquals(100, ids.size()))
+                .verifyComplete();
+
+        StepVerifier.create(itemReactiveRepository.count())
+                .expectNext(101L)
+                .verifyComplete();
+    }
+
+    /**
+     * Só o create com o id duplicado recebe erro. Os outros itens do mesmo lote são gravados.
+     */
+    @Test
+    public void createWithDuplicatedId() {
+        Flux<Item> created = Flux.just(
+                new Item(null, "Iphone X", 999.99),
+                new Item("ABC", "Duplicated HeadPhones", 9.99),
+                new Item(null, "Iphone 11", 1099.99))
+                .flatMap(item -> itemInsertCoalescer.create(item)
+                        .onErrorResume(e -> Mono.empty()));
+
+        StepVerifier.create(created)
+                .expectNextCount(2)
+                .verifyComplete();
+
+        StepVerifier.create(itemReactiveRepository.count())
+                .expectNext(3L)
+                .verifyComplete();
+    }
+
+    /**
+     * Um item igual ao que já está no banco é um conflito, não um item criado.
+     */
+    @Test
+    public void createIdenticalToExisting() {
+        StepVerifier.create(itemInsertCoalescer.create(new Item("ABC", "Beats HeadPhones", 19.99)))
+                .expectErrorMatches(e -> e instanceof ResponseStatusException
+                        && ((ResponseStatusException) e).getStatus() == HttpStatus.CONFLICT)
+                .verify();
+
+        StepVerifier.create(itemReactiveRepository.count())
+                .expectNext(1L)
+                .verifyComplete();
+    }
+
+}
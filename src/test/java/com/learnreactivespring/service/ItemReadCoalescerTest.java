@@ -0,0 +1,85 @@
+package com.learnreactivespring.service;
+
+import com.learnreactivespring.document.Item;
+import com.learnreactivespring.repository.ItemReactiveRepository;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+@SpringBootTest
+@DirtiesContext
+@ActiveProfiles("test")
+public class ItemReadCoalescerTest {
+
+    @Autowired
+    private ItemReadCoalescer itemReadCoalescer;
+
+    @Autowired
+    private ItemReactiveRepository itemReactiveRepository;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @BeforeEach
+    public void setUp() {
+        itemReactiveRepository.deleteAll()
+                .thenMany(itemReactiveRepository.saveAll(Arrays.asList(
+                        new Item(null, "Samsung TV", 399.99),
+                        new Item("ABC", "Beats HeadPhones", 19.99))))
+                .blockLast();
+    }
+
+    /**
+     * Os 50 subscribes acontecem antes do banco responder, então a maioria deles tem que reaproveitar
+     * a consulta que já está em andamento.
+     */
+    @Test
+    public void findById_concurrent() {
+        double executedBefore = count("findById", "executed");
+
+        Flux<Item> items = Flux.range(0, 50)
+                .flatMap(i -> itemReadCoalescer.findById("ABC"));
+
+        StepVerifier.create(items)
+                .expectNextCount(50)
+                .verifyComplete();
+
+        double executed = count("findById", "executed") - executedBefore;
+        assertTrue(executed < 50);
+    }
+
+    @Test
+    public void findAll_concurrent() {
+        double executedBefore = count("findAll", "executed");
+
+        Flux<Integer> sizes = Flux.range(0, 10)
+                .flatMap(i -> itemReadCoalescer.findAll().map(List::size));
+
+        StepVerifier.create(sizes)
+                .recordWith(ArrayList::new)
+                .expectNextCount(10)
+                .consumeRecordedWith(all -> all.forEach(size -> assertEquals(2, size)))
+                .verifyComplete();
+
+        double executed = count("findAll", "executed") - executedBefore;
+        assertTrue(executed < 10);
+    }
+
+    private double count(String query, String result) {
+        return meterRegistry.get("item.reads").tag("query", query).tag("result", result).counter().count();
+    }
+
+}
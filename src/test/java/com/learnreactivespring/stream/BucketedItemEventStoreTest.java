@@ -0,0 +1,123 @@
+package com.learnreactivespring.stream;
+
+import com.learnreactivespring.document.ItemCapped;
+import com.learnreactivespring.document.ItemCappedBucket;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * O intervalo de 1h faz os eventos do teste caírem no mesmo bucket.
+ */
+@SpringBootTest(properties = {
+        "item.stream.store=bucketed",
+        "item.stream.bucket.interval=1h",
+        "item.stream.bucket.max-events=3",
+        "item.stream.bucket.poll-interval=50ms"})
+@DirtiesContext
+@ActiveProfiles("test")
+public class BucketedItemEventStoreTest {
+
+    @Autowired
+    ItemEventStore itemEventStore;
+
+    @Autowired
+    MongoOperations mongoOperations;
+
+    private List<ItemCapped> appended;
+
+    @BeforeEach
+    public void setUp() {
+        mongoOperations.dropCollection(ItemCappedBucket.class);
+
+        appended = Flux.range(0, 5)
+                .map(i -> new ItemCapped(null, "Random Item " + i, 100.0 + i))
+                .concatMap(itemEventStore::append)
+                .collectList()
+                .block();
+    }
+
+    /**
+     * Com max-events = 3, os 5 eventos ficam em 2 documentos.
+     */
+    @Test
+    public void append_packsEventsIntoBuckets() {
+        List<ItemCappedBucket> buckets = mongoOperations.findAll(ItemCappedBucket.class);
+
+        assertEquals(2, buckets.size());
+        assertEquals(5, buckets.stream().mapToInt(ItemCappedBucket::getCount).sum());
+    }
+
+    @Test
+    public void tail_resumesAfterLastId() {
+        List<String> ids = appended.stream().map(ItemCapped::getId).collect(Collectors.toList());
+        ItemStreamFilter filter = new ItemStreamFilter(ids.get(1), null, null, null);
+
+        StepVerifier.create(itemEventStore.tail(filter).map(ItemCapped::getId).take(3).collectList())
+                .expectNext(ids.subList(2, 5))
+                .verifyComplete();
+    }
+
+    /**
+     * Um lote é gravado com um update por bucket.
+     */
+    @Test
+    public void appendAll_packsBatchIntoBuckets() {
+        mongoOperations.dropCollection(ItemCappedBucket.class);
+
+        StepVerifier.create(itemEventStore.appendAll(appended.stream()
+                .map(itemCapped -> new ItemCapped(null, itemCapped.getDescription(), itemCapped.getPrice()))
+                .collect(Collectors.toList())))
+                .expectNextCount(5)
+                .verifyComplete();
+
+        List<ItemCappedBucket> buckets = mongoOperations.findAll(ItemCappedBucket.class);
+        assertEquals(2, buckets.size());
+        assertEquals(3, buckets.get(0).getEvents().size());
+        assertEquals(2, buckets.get(1).getEvents().size());
+    }
+
+    /**
+     * Com vários escritores, um evento com id menor que o último lido pode chegar depois dele. Ele é lido
+     * pela posição no bucket, e não pelo id.
+     */
+    @Test
+    public void tail_receivesEventsWithOlderIds() {
+        ItemStreamFilter filter = new ItemStreamFilter(appended.get(4).getId(), null, null, null);
+        String olderId = new ObjectId(new Date(0)).toHexString();
+
+        StepVerifier.create(itemEventStore.tail(filter).map(ItemCapped::getId).take(1))
+                .then(() -> itemEventStore.append(new ItemCapped(olderId, "Late Item", 300.0)).block())
+                .expectNext(olderId)
+                .verifyComplete();
+    }
+
+    /**
+     * Os eventos gravados depois que a leitura começou chegam no próximo poll.
+     */
+    @Test
+    public void tail_receivesNewEvents() {
+        ItemStreamFilter filter = new ItemStreamFilter(appended.get(4).getId(), 200.0, null, null);
+
+        StepVerifier.create(itemEventStore.tail(filter).take(1))
+                .then(() -> Flux.just(new ItemCapped(null, "Cheap Item", 10.0), new ItemCapped(null, "Expensive Item", 500.0))
+                        .concatMap(itemEventStore::append)
+                        .blockLast())
+                .expectNextMatches(itemCapped -> itemCapped.getDescription().equals("Expensive Item"))
+                .verifyComplete();
+    }
+
+}
@@ -0,0 +1,85 @@
+package com.learnreactivespring.stream;
+
+import com.learnreactivespring.document.ItemCapped;
+import com.learnreactivespring.repository.ItemReactiveCappedRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.CollectionOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+@SpringBootTest
+@DirtiesContext
+@ActiveProfiles("test")
+public class ItemCappedStreamTest {
+
+    @Autowired
+    ItemCappedStream itemCappedStream;
+
+    @Autowired
+    ItemReactiveCappedRepository itemReactiveCappedRepository;
+
+    @Autowired
+    MongoOperations mongoOperations;
+
+    @BeforeEach
+    public void setUp() {
+        mongoOperations.dropCollection(ItemCapped.class);
+        mongoOperations.createCollection(ItemCapped.class, CollectionOptions.empty()
+                .maxDocuments(20)
+                .size(50000)
+                .capped());
+
+        Flux<ItemCapped> itemCappedFlux = Flux.interval(Duration.ofMillis(1))
+                .map(i -> new ItemCapped(null, "Random Item " + i, 100.0 + i))
+                .take(5);
+
+        itemReactiveCappedRepository.insert(itemCappedFlux).blockLast();
+    }
+
+    /**
+     * Enquanto o primeiro subscriber mantém o cursor compartilhado aberto, os próximos recebem os mesmos
+     * itens a partir da memória, na mesma ordem, e podem retomar a partir de um id que está na memória.
+     */
+    @Test
+    public void sharedStream_replaysFromMemory() {
+        StepVerifier.create(itemCappedStream.stream(true, new ItemStreamFilter(), null))
+                .recordWith(ArrayList::new)
+                .expectNextCount(5)
+                .consumeRecordedWith(firstSubscriberItems -> {
+                    List<String> ids = firstSubscriberItems.stream()
+                            .map(ItemCapped::getId)
+                            .collect(Collectors.toList());
+
+                    StepVerifier.create(itemCappedStream.stream(true, new ItemStreamFilter(), null)
+                            .map(ItemCapped::getId)
+                            .take(5)
+                            .collectList())
+                            .expectNext(ids)
+                            .expectComplete()
+                            .verify(Duration.ofSeconds(5));
+
+                    ItemStreamFilter resume = new ItemStreamFilter(ids.get(2), null, null, null);
+                    StepVerifier.create(itemCappedStream.stream(true, resume, null)
+                            .map(ItemCapped::getId)
+                            .take(2)
+                            .collectList())
+                            .expectNext(ids.subList(3, 5))
+                            .expectComplete()
+                            .verify(Duration.ofSeconds(5));
+                })
+                .thenCancel()
+                .verify();
+    }
+
+}
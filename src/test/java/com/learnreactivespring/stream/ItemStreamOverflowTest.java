@@ -0,0 +1,102 @@
+package com.learnreactivespring.stream;
+
+import com.learnreactivespring.document.ItemCapped;
+import com.learnreactivespring.repository.ItemReactiveCappedRepository;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.data.mongodb.core.CollectionOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+import reactor.test.publisher.TestPublisher;
+
+import java.time.Duration;
+
+/**
+ * Com subscriber-buffer-size = 4, os 20 itens chegam de uma vez para um cliente que ainda não pediu nada.
+ */
+@SpringBootTest(properties = "item.stream.subscriber-buffer-size=4")
+@DirtiesContext
+@ActiveProfiles("test")
+public class ItemStreamOverflowTest {
+
+    @Autowired
+    ItemStreamOverflow itemStreamOverflow;
+
+    @Autowired
+    ItemCappedStream itemCappedStream;
+
+    @Autowired
+    ItemReactiveCappedRepository itemReactiveCappedRepository;
+
+    @Autowired
+    MongoOperations mongoOperations;
+
+    private Flux<ItemCapped> items() {
+        return Flux.range(1, 20).map(i -> new ItemCapped("ID" + i, "Random Item " + i, (double) i));
+    }
+
+    /* Os itens só são publicados depois da assinatura, enquanto a demanda do cliente ainda é zero. */
+    private StepVerifier.Step<String> verify(OverflowPolicy policy) {
+        TestPublisher<ItemCapped> publisher = TestPublisher.create();
+        return StepVerifier.create(itemStreamOverflow.apply(publisher.flux(), policy).map(ItemCapped::getId), 0)
+                .then(() -> items().doOnComplete(publisher::complete).subscribe(publisher::next))
+                .thenRequest(Long.MAX_VALUE);
+    }
+
+    /* Os itens que chegam com o buffer cheio são descartados. */
+    @Test
+    public void buffer_keepsOldest() {
+        verify(OverflowPolicy.BUFFER)
+                .expectNext("ID1", "ID2", "ID3", "ID4")
+                .verifyComplete();
+    }
+
+    @Test
+    public void dropOldest_keepsNewest() {
+        verify(OverflowPolicy.DROP_OLDEST)
+                .expectNext("ID17", "ID18", "ID19", "ID20")
+                .verifyComplete();
+    }
+
+    @Test
+    public void latest_keepsLast() {
+        verify(OverflowPolicy.LATEST)
+                .expectNext("ID20")
+                .verifyComplete();
+    }
+
+    /* O cliente recebe o que já estava no buffer e é desconectado sem erro. */
+    @Test
+    public void disconnect_completes() {
+        verify(OverflowPolicy.DISCONNECT)
+                .expectNext("ID1", "ID2", "ID3", "ID4")
+                .verifyComplete();
+    }
+
+    /**
+     * Quando o cliente lento é desconectado, a resposta SSE termina, em vez de ficar aberta só com os
+     * heartbeats.
+     */
+    @Test
+    public void disconnect_endsSse() {
+        mongoOperations.dropCollection(ItemCapped.class);
+        mongoOperations.createCollection(ItemCapped.class, CollectionOptions.empty()
+                .maxDocuments(20)
+                .size(50000)
+                .capped());
+        itemReactiveCappedRepository.insert(items().map(item -> new ItemCapped(null, item.getDescription(), item.getPrice())))
+                .blockLast();
+
+        StepVerifier.create(itemCappedStream.sse(false, new ItemStreamFilter(), OverflowPolicy.DISCONNECT), 0)
+                .thenAwait(Duration.ofMillis(500))
+                .thenRequest(Long.MAX_VALUE)
+                .thenConsumeWhile(event -> true)
+                .expectComplete()
+                .verify(Duration.ofSeconds(5));
+    }
+
+}
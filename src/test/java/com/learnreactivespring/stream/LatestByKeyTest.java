@@ -0,0 +1,99 @@
+package com.learnreactivespring.stream;
+
+import com.learnreactivespring.document.ItemCapped;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+import reactor.test.publisher.TestPublisher;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class LatestByKeyTest {
+
+    private final ItemCapped tv1 = new ItemCapped("1", "TV", 100.0);
+    private final ItemCapped watch1 = new ItemCapped("2", "Watch", 50.0);
+    private final ItemCapped tv2 = new ItemCapped("3", "TV", 110.0);
+    private final ItemCapped phone1 = new ItemCapped("4", "Phone", 900.0);
+    private final ItemCapped tv3 = new ItemCapped("5", "TV", 120.0);
+
+    /**
+     * Sem demanda, os itens ficam pendentes e só o último de cada description é guardado. A chave vai para
+     * o fim da fila a cada mudança.
+     * Os itens são publicados depois da assinatura, enquanto a demanda ainda é zero.
+     */
+    @Test
+    public void conflate_slowSubscriber() {
+        List<ItemCapped> replaced = new ArrayList<>();
+        TestPublisher<ItemCapped> publisher = TestPublisher.create();
+
+        StepVerifier.create(LatestByKey.conflate(publisher.flux(), ItemCapped::getDescription, replaced::add, 10), 0)
+                .then(() -> publisher.emit(tv1, watch1, tv2, phone1, tv3))
+                .thenRequest(10)
+                .expectNext(watch1, phone1, tv3)
+                .verifyComplete();
+
+        assertEquals(2, replaced.size());
+    }
+
+    /**
+     * Eventos com ids diferentes do mesmo itemId são agrupados em um só.
+     */
+    @Test
+    public void conflate_sameItemId() {
+        List<ItemCapped> replaced = new ArrayList<>();
+        TestPublisher<ItemCapped> publisher = TestPublisher.create();
+
+        StepVerifier.create(LatestByKey.conflate(publisher.flux(), ItemCapped::getItemId, replaced::add, 10)
+                .map(ItemCapped::getPrice), 0)
+                .then(() -> Flux.range(0, 100)
+                        .map(i -> new ItemCapped("ID" + i, "Random Item " + i % 3, 100.0 + i, "item-" + i % 3))
+                        .doOnComplete(publisher::complete)
+                        .subscribe(publisher::next))
+                .thenRequest(10)
+                .expectNext(197.0, 198.0, 199.0)
+                .verifyComplete();
+
+        assertEquals(97, replaced.size());
+    }
+
+    /**
+     * Com o mapa cheio, uma chave nova descarta a chave pendente há mais tempo.
+     */
+    @Test
+    public void conflate_maxKeys() {
+        List<ItemCapped> replaced = new ArrayList<>();
+        TestPublisher<ItemCapped> publisher = TestPublisher.create();
+
+        StepVerifier.create(LatestByKey.conflate(publisher.flux(), ItemCapped::getDescription, replaced::add, 2), 0)
+                .then(() -> publisher.emit(tv1, watch1, tv2, phone1))
+                .thenRequest(10)
+                .expectNext(tv2, phone1)
+                .verifyComplete();
+
+        assertEquals(2, replaced.size());
+    }
+
+    @Test
+    public void conflate_fastSubscriber() {
+        StepVerifier.create(LatestByKey.conflate(Flux.just(tv1, watch1, tv2, phone1, tv3),
+                ItemCapped::getDescription, item -> {
+                }, 10))
+                .expectNext(tv1, watch1, tv2, phone1, tv3)
+                .verifyComplete();
+    }
+
+    @Test
+    public void conflate_partialDemand() {
+        StepVerifier.create(LatestByKey.conflate(Flux.just(tv1, watch1, tv2),
+                ItemCapped::getDescription, item -> {
+                }, 10), 1)
+                .expectNext(tv1)
+                .thenRequest(5)
+                .expectNext(watch1, tv2)
+                .verifyComplete();
+    }
+
+}
@@ -0,0 +1,114 @@
+package com.learnreactivespring.stream;
+
+import com.learnreactivespring.document.ItemCapped;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.util.FileSystemUtils;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Com segmentos de 256 bytes cabem só 2 eventos por segmento, então os 5 eventos ocupam 3 segmentos.
+ */
+@SpringBootTest(properties = {
+        "item.stream.store=log",
+        "item.stream.log.directory=${java.io.tmpdir}/item-stream-log-test",
+        "item.stream.log.segment-size=256B"})
+@DirtiesContext
+@ActiveProfiles("test")
+public class MappedLogItemEventStoreTest {
+
+    private static final String DIRECTORY = System.getProperty("java.io.tmpdir") + File.separator + "item-stream-log-test";
+
+    @Autowired
+    ItemEventStore itemEventStore;
+
+    private List<ItemCapped> appended;
+
+    /**
+     * Roda antes do contexto subir, para o log não recuperar os eventos de uma execução anterior.
+     */
+    @BeforeAll
+    public static void cleanDirectory() {
+        FileSystemUtils.deleteRecursively(new File(DIRECTORY));
+    }
+
+    @BeforeEach
+    public void setUp() {
+        appended = Flux.range(0, 5)
+                .map(i -> new ItemCapped(null, "Random Item " + i, 100.0 + i))
+                .concatMap(itemEventStore::append)
+                .collectList()
+                .block();
+    }
+
+    @Test
+    public void append_rollsSegments() throws Exception {
+        assertTrue(Files.list(Paths.get(DIRECTORY)).count() >= 3);
+    }
+
+    @Test
+    public void tail_resumesAfterLastId() {
+        List<String> ids = appended.stream().map(ItemCapped::getId).collect(Collectors.toList());
+        ItemStreamFilter filter = new ItemStreamFilter(ids.get(1), null, null, null);
+
+        StepVerifier.create(itemEventStore.tail(filter).map(ItemCapped::getId).take(3).collectList())
+                .expectNext(ids.subList(2, 5))
+                .verifyComplete();
+    }
+
+    /**
+     * Sem o lastId, a leitura começa no segmento atual, que tem só os últimos eventos gravados.
+     */
+    @Test
+    public void tail_withoutLastIdStartsAtCurrentSegment() {
+        List<String> latest = appended.subList(3, 5).stream().map(ItemCapped::getId).collect(Collectors.toList());
+
+        StepVerifier.create(itemEventStore.tail(new ItemStreamFilter(null, null, null, null)).take(1))
+                .expectNextMatches(itemCapped -> latest.contains(itemCapped.getId()))
+                .verifyComplete();
+    }
+
+    /**
+     * Os eventos gravados depois que a leitura começou acordam o leitor, sem polling.
+     */
+    @Test
+    public void tail_receivesNewEvents() {
+        ItemStreamFilter filter = new ItemStreamFilter(appended.get(4).getId(), 200.0, null, null);
+
+        StepVerifier.create(itemEventStore.tail(filter).take(1))
+                .then(() -> Flux.just(new ItemCapped(null, "Cheap Item", 10.0), new ItemCapped(null, "Expensive Item", 500.0))
+                        .concatMap(itemEventStore::append)
+                        .blockLast())
+                .expectNextMatches(itemCapped -> itemCapped.getDescription().equals("Expensive Item"))
+                .verifyComplete();
+    }
+
+    /**
+     * O leitor é acordado pelo append, mas lê na sua própria thread, e não na thread de quem gravou.
+     */
+    @Test
+    public void tail_readsOffTheAppendingThread() {
+        ItemStreamFilter filter = new ItemStreamFilter(appended.get(4).getId(), null, null, null);
+        String appendingThread = Thread.currentThread().getName();
+
+        StepVerifier.create(itemEventStore.tail(filter).take(1).map(itemCapped -> Thread.currentThread().getName()))
+                .then(() -> itemEventStore.append(new ItemCapped(null, "New Item", 10.0)).block())
+                .expectNextMatches(thread -> !thread.equals(appendingThread) && thread.startsWith("item-log-reader"))
+                .verifyComplete();
+    }
+
+}
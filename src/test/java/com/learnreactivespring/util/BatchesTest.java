@@ -0,0 +1,67 @@
+package com.learnreactivespring.util;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class BatchesTest {
+
+    @Test
+    public void bufferTimeout_bySize() {
+        StepVerifier.create(Batches.bufferTimeout(Flux.range(1, 10), 4, Duration.ofSeconds(1)))
+                .expectNext(Arrays.asList(1, 2, 3, 4), Arrays.asList(5, 6, 7, 8), Arrays.asList(9, 10))
+                .verifyComplete();
+    }
+
+    @Test
+    public void bufferTimeout_byTime() {
+        StepVerifier.withVirtualTime(() -> Batches.bufferTimeout(
+                Flux.just(1, 2).concatWith(Flux.never()), 10, Duration.ofSeconds(1)))
+                .expectSubscription()
+                .expectNoEvent(Duration.ofMillis(900))
+                .thenAwait(Duration.ofMillis(100))
+                .expectNext(Arrays.asList(1, 2))
+                .thenCancel()
+                .verify();
+    }
+
+    /**
+     * Sem demanda, o lote que fechou por tempo espera o consumidor em vez de terminar com erro.
+     */
+    @Test
+    public void bufferTimeout_waitsForDemand() {
+        StepVerifier.withVirtualTime(() -> Batches.bufferTimeout(
+                Flux.just(1, 2).concatWith(Flux.never()), 10, Duration.ofSeconds(1)), 0)
+                .expectSubscription()
+                .thenAwait(Duration.ofSeconds(5))
+                .expectNoEvent(Duration.ofSeconds(1))
+                .thenRequest(1)
+                .expectNext(Arrays.asList(1, 2))
+                .thenCancel()
+                .verify();
+    }
+
+    /**
+     * Com o consumidor parado, só os itens que cabem em um lote são pedidos ao upstream.
+     */
+    @Test
+    public void bufferTimeout_propagatesBackpressure() {
+        AtomicLong requested = new AtomicLong();
+        Flux<Integer> source = Flux.range(1, 100).doOnRequest(requested::addAndGet);
+
+        StepVerifier.create(Batches.bufferTimeout(source, 4, Duration.ofMillis(10)), 1)
+                .expectNext(Arrays.asList(1, 2, 3, 4))
+                .thenAwait(Duration.ofMillis(50))
+                .then(() -> assertEquals(8, requested.get()))
+                .thenRequest(Long.MAX_VALUE)
+                .expectNextCount(24)
+                .verifyComplete();
+    }
+
+}
@@ -0,0 +1,160 @@
+package com.learnreactivespring.websocket;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.learnreactivespring.constants.ItemConstants;
+import com.learnreactivespring.document.ItemCapped;
+import com.learnreactivespring.repository.ItemReactiveCappedRepository;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.web.server.LocalServerPort;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.data.mongodb.core.CollectionOptions;
+import org.springframework.data.mongodb.core.MongoOperations;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.web.reactive.socket.WebSocketMessage;
+import org.springframework.web.reactive.socket.client.ReactorNettyWebSocketClient;
+import reactor.core.publisher.Flux;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * O WebSocket precisa de um servidor de verdade, por isso usa uma porta aleatória em vez do
+ * WebTestClient.
+ */
+@SpringBootTest(webEnvironment = SpringBootTest.WebEnvironment.RANDOM_PORT)
+@DirtiesContext
+@ActiveProfiles("test")
+public class ItemStreamWebSocketHandlerTest {
+
+    private static final TypeReference<List<ItemCapped>> ITEMS = new TypeReference<List<ItemCapped>>() {
+    };
+
+    @LocalServerPort
+    int port;
+
+    @Autowired
+    ItemReactiveCappedRepository itemReactiveCappedRepository;
+
+    @Autowired
+    MongoOperations mongoOperations;
+
+    @Autowired
+    ObjectMapper objectMapper;
+
+    private final ReactorNettyWebSocketClient client = new ReactorNettyWebSocketClient();
+
+    @BeforeEach
+    public void setUp() {
+        mongoOperations.dropCollection(ItemCapped.class);
+        mongoOperations.createCollection(ItemCapped.class, CollectionOptions.empty()
+                .maxDocuments(20)
+                .size(50000)
+                .capped());
+
+        Flux<ItemCapped> itemCappedFlux = Flux.interval(Duration.ofMillis(1))
+                .map(i -> new ItemCapped(null, "Random Item " + i, 100.0 + i))
+                .take(5);
+
+        itemReactiveCappedRepository.insert(itemCappedFlux).blockLast();
+    }
+
+    /**
+     * Com um maxDelay alto, os 5 itens que já estão na capped collection chegam juntos no primeiro frame.
+     */
+    @Test
+    public void streamItems_batchedJson() {
+        List<List<ItemCapped>> frames = new CopyOnWriteArrayList<>();
+
+        client.execute(uri("?batchSize=5&maxDelay=1000"), session -> session.receive()
+                .take(1)
+                .map(message -> read(objectMapper, message))
+                .doOnNext(frames::add)
+                .then())
+                .block(Duration.ofSeconds(10));
+
+        assertEquals(1, frames.size());
+        assertEquals(5, frames.get(0).size());
+    }
+
+    @Test
+    public void streamItems_smile() {
+        ObjectMapper smileMapper = Jackson2ObjectMapperBuilder.smile().build();
+        List<List<ItemCapped>> frames = new CopyOnWriteArrayList<>();
+
+        client.execute(uri("?batchSize=5&maxDelay=1000&format=smile"), session -> session.receive()
+                .take(1)
+                .doOnNext(message -> assertEquals(WebSocketMessage.Type.BINARY, message.getType()))
+                .map(message -> read(smileMapper, message))
+                .doOnNext(frames::add)
+                .then())
+                .block(Duration.ofSeconds(10));
+
+        assertEquals(5, frames.get(0).size());
+    }
+
+    /**
+     * Nenhum item passa no filtro inicial. Depois que o cliente envia um novo filtro pelo próprio
+     * WebSocket, o stream passa a enviar os itens com preço a partir de 103.
+     */
+    @Test
+    public void streamItems_changeFilterInBand() {
+        List<List<ItemCapped>> frames = new CopyOnWriteArrayList<>();
+
+        client.execute(uri("?minPrice=1000&batchSize=5&maxDelay=100"), session -> session
+                .send(Flux.just(session.textMessage("{\"minPrice\": 103}")))
+                .thenMany(session.receive().take(1))
+                .map(message -> read(objectMapper, message))
+                .doOnNext(frames::add)
+                .then())
+                .block(Duration.ofSeconds(10));
+
+        List<ItemCapped> items = frames.get(0);
+        assertFalse(items.isEmpty());
+        assertTrue(items.stream().allMatch(itemCapped -> itemCapped.getPrice() >= 103));
+    }
+
+    /**
+     * Um parâmetro inválido fecha a conexão, sem enviar nenhum frame.
+     */
+    @Test
+    public void streamItems_invalidBatchSize() {
+        List<WebSocketMessage> frames = new CopyOnWriteArrayList<>();
+
+        client.execute(uri("?batchSize=abc"), session -> session.receive()
+                .doOnNext(frames::add)
+                .then())
+                .block(Duration.ofSeconds(10));
+
+        assertTrue(frames.isEmpty());
+    }
+
+    private URI uri(String query) {
+        return URI.create("ws://localhost:" + port + ItemConstants.ITEM_STREAM_WS_END_POINT_V1 + query);
+    }
+
+    private List<ItemCapped> read(ObjectMapper mapper, WebSocketMessage message) {
+        DataBuffer payload = message.getPayload();
+        byte[] bytes = new byte[payload.readableByteCount()];
+        payload.read(bytes);
+        try {
+            return mapper.readValue(bytes, ITEMS);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+}